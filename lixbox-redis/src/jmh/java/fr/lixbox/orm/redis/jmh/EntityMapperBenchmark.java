@@ -0,0 +1,208 @@
+/*******************************************************************************
+ *    
+ *                           FRAMEWORK Lixbox
+ *                          ==================
+ *      
+ * This file is part of lixbox-orm.
+ *
+ *    lixbox-orm is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    lixbox-orm is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *    along with lixbox-orm.  If not, see <https://www.gnu.org/licenses/>
+ *   
+ *   @AUTHOR Lixbox-team
+ *
+ ******************************************************************************/
+package fr.lixbox.orm.redis.jmh;
+
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+
+import fr.lixbox.io.json.JsonUtil;
+import fr.lixbox.orm.redis.client.RedisEntityMapper;
+
+/**
+ * Ce benchmark compare la deserialisation d'un resultat de recherche
+ * par la resolution de type historique (TypeReference et Class.forName
+ * par cle) et par le {@link RedisEntityMapper}.
+ *
+ * @author ludovic.terral
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class EntityMapperBenchmark
+{
+    // ----------- Attibuts -----------
+    @Param({"500"})
+    private int hits;
+
+    private List<String> keys;
+    private List<String> values;
+    private RedisEntityMapper mapper;
+
+
+
+    //----------- Methodes -----------
+    @Setup
+    public void setup()
+    {
+        mapper = new RedisEntityMapper();
+        keys = new ArrayList<>(hits);
+        values = new ArrayList<>(hits);
+        for (int ix=0; ix<hits; ix++)
+        {
+            BenchEntity entity = new BenchEntity();
+            entity.setOid("oid"+ix);
+            entity.setLibelle("jour ferie "+ix);
+            entity.setDateEvent(1664316000000L+ix);
+            entity.setListe(Arrays.asList("a"+ix, "b"+ix));
+            keys.add("LIXBOX:OBJECT:"+BenchEntity.class.getName()+":"+entity.getOid());
+            values.add(mapper.write(entity));
+        }
+    }
+
+
+
+    @Benchmark
+    public void legacyTypeReference(Blackhole blackhole)
+    {
+        for (int ix=0; ix<hits; ix++)
+        {
+            blackhole.consume(JsonUtil.transformJsonToObject(values.get(ix), getTypeReferenceFromKey(keys.get(ix))));
+        }
+    }
+
+
+
+    @Benchmark
+    public void cachedEntityMapper(Blackhole blackhole)
+    {
+        for (int ix=0; ix<hits; ix++)
+        {
+            blackhole.consume(mapper.readFromKey(keys.get(ix), values.get(ix)));
+        }
+    }
+
+
+
+    @Benchmark
+    public void legacyWrite(Blackhole blackhole)
+    {
+        BenchEntity entity = new BenchEntity();
+        entity.setOid("oid");
+        entity.setLibelle("jour ferie");
+        blackhole.consume(JsonUtil.transformObjectToJson(entity, false));
+    }
+
+
+
+    @Benchmark
+    public void cachedWrite(Blackhole blackhole)
+    {
+        BenchEntity entity = new BenchEntity();
+        entity.setOid("oid");
+        entity.setLibelle("jour ferie");
+        blackhole.consume(mapper.write(entity));
+    }
+
+
+
+    /**
+     * Reproduction de la resolution de type anterieure au cache.
+     */
+    private static <T> TypeReference<?> getTypeReferenceFromKey(String key)
+    {
+        String cleanKey = key.substring(key.indexOf(':', key.indexOf(':')+1)+1,key.indexOf(':', key.indexOf(':', key.indexOf(':')+1)+1));
+        return new TypeReference<T>(){
+            @Override
+            public Type getType() {
+                try
+                {
+                    return Class.forName(cleanKey);
+                }
+                catch (ClassNotFoundException e)
+                {
+                    return null;
+                }
+            }
+        };
+    }
+
+
+
+    public static class BenchEntity
+    {
+        private String oid;
+        private String libelle;
+        private long dateEvent;
+        private List<String> liste;
+
+
+
+        public String getOid()
+        {
+            return oid;
+        }
+        public void setOid(String oid)
+        {
+            this.oid = oid;
+        }
+
+
+
+        public String getLibelle()
+        {
+            return libelle;
+        }
+        public void setLibelle(String libelle)
+        {
+            this.libelle = libelle;
+        }
+
+
+
+        public long getDateEvent()
+        {
+            return dateEvent;
+        }
+        public void setDateEvent(long dateEvent)
+        {
+            this.dateEvent = dateEvent;
+        }
+
+
+
+        public List<String> getListe()
+        {
+            return liste;
+        }
+        public void setListe(List<String> liste)
+        {
+            this.liste = liste;
+        }
+    }
+}
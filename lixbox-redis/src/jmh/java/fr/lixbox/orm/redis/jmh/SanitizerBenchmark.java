@@ -0,0 +1,136 @@
+/*******************************************************************************
+ *    
+ *                           FRAMEWORK Lixbox
+ *                          ==================
+ *      
+ * This file is part of lixbox-orm.
+ *
+ *    lixbox-orm is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    lixbox-orm is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *    along with lixbox-orm.  If not, see <https://www.gnu.org/licenses/>
+ *   
+ *   @AUTHOR Lixbox-team
+ *
+ ******************************************************************************/
+package fr.lixbox.orm.redis.jmh;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import fr.lixbox.common.helper.StringTokenizer;
+import fr.lixbox.common.util.StringUtil;
+import fr.lixbox.io.json.JsonUtil;
+import fr.lixbox.orm.redis.query.RedisSearchValueSanitizer;
+
+/**
+ * Ce benchmark compare la preparation des valeurs indexees par la
+ * serialisation json et les remplacements successifs historiques, et
+ * par l'echappement en une passe du {@link RedisSearchValueSanitizer}.
+ * A lancer avec -prof gc pour comparer les allocations.
+ *
+ * @author ludovic.terral
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SanitizerBenchmark
+{
+    // ----------- Attibuts -----------
+    private enum BenchType { FERIE, OUVRE }
+
+    private final Object[] values = {
+        "anniversaire Ludo", "jean-pierre.dupont@lixbox.fr", 1664316000000L, -12.5d, BenchType.FERIE, 
+        Arrays.asList("vierge", "poisson", "chat")
+    };
+    private final String indexedList = "[ vierge , poisson , chat ]";
+
+
+
+    //----------- Methodes -----------
+    @Benchmark
+    public void legacySanitize(Blackhole blackhole)
+    {
+        for (Object value : values)
+        {
+            blackhole.consume(legacySanitizeValue(value));
+        }
+    }
+
+
+
+    @Benchmark
+    public void singlePassSanitize(Blackhole blackhole)
+    {
+        for (Object value : values)
+        {
+            blackhole.consume(RedisSearchValueSanitizer.sanitizeValue(value));
+        }
+    }
+
+
+
+    @Benchmark
+    public List<String> legacyRestore()
+    {
+        return legacyRestoreFieldValueToList(indexedList);
+    }
+
+
+
+    @Benchmark
+    public List<String> singlePassRestore()
+    {
+        return RedisSearchValueSanitizer.restoreFieldValueToList(indexedList);
+    }
+
+
+
+    /**
+     * Reproduction de la preparation anterieure au tampon.
+     */
+    private static String legacySanitizeValue(Object value)
+    {
+        String result = "";
+        if (value==null || value instanceof String && StringUtil.isEmpty((String)value))
+        {
+            result="";
+        }
+        else if (value instanceof String && StringUtil.isNotEmpty((String)value))
+        {
+            result = (String) value;
+        }
+        else
+        {
+            result = JsonUtil.transformObjectToJson(value, false);
+            result = result.replace('"',' ');
+        }
+        result = result.replace('-', '_').replace('@', '_').replace('.', '_').trim();
+        return result;
+    }
+
+
+
+    private static List<String> legacyRestoreFieldValueToList(String values)
+    {
+        String result = values.replace("[ ", "").replace(" ]", "").replace("\\[ ", "").replace(" \\]", "").replace(" , ", ",");
+        return new StringTokenizer(result, ",").getTokens();
+    }
+}
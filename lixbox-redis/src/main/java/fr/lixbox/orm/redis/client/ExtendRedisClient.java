@@ -24,22 +24,33 @@
 package fr.lixbox.orm.redis.client;
 
 import java.io.Serializable;
-import java.lang.reflect.Type;
-import java.net.URI;
-import java.net.URISyntaxException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
 
-import com.fasterxml.jackson.core.type.TypeReference;
-
 import fr.lixbox.common.exceptions.BusinessException;
 import fr.lixbox.common.guid.GuidGenerator;
 import fr.lixbox.common.util.CollectionUtil;
@@ -48,35 +59,88 @@ import fr.lixbox.common.util.StringUtil;
 import fr.lixbox.io.json.JsonUtil;
 import fr.lixbox.orm.entity.model.Dao;
 import fr.lixbox.orm.entity.model.OptimisticDao;
+import fr.lixbox.orm.redis.codec.RedisCompressionStatistics;
+import fr.lixbox.orm.redis.codec.RedisValueCodec;
+import fr.lixbox.orm.redis.codec.RedisValueCodecs;
+import fr.lixbox.orm.redis.codec.RedisValueCompressor;
 import fr.lixbox.orm.redis.model.EQuery;
+import fr.lixbox.orm.redis.model.RedisAggregateRow;
+import fr.lixbox.orm.redis.model.RedisMergeOutcome;
+import fr.lixbox.orm.redis.model.RedisOptimisticLockException;
+import fr.lixbox.orm.redis.model.RedisReplicaSelection;
 import fr.lixbox.orm.redis.model.RedisSearchDao;
+import fr.lixbox.orm.redis.model.RedisStorageMode;
+import fr.lixbox.orm.redis.query.RedisAggregation;
+import fr.lixbox.orm.redis.query.RedisSearchQueryTemplate;
+import fr.lixbox.orm.redis.query.RedisSearchValueSanitizer;
+import fr.lixbox.orm.redis.script.RedisScript;
+import fr.lixbox.orm.redis.script.RedisScriptRegistry;
 import redis.clients.jedis.Connection;
+import redis.clients.jedis.DefaultJedisClientConfig;
+import redis.clients.jedis.HostAndPort;
+import redis.clients.jedis.JedisClientConfig;
 import redis.clients.jedis.JedisPooled;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Protocol.Command;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.UnifiedJedis;
 import redis.clients.jedis.exceptions.JedisDataException;
+import redis.clients.jedis.json.JsonProtocol.JsonCommand;
+import redis.clients.jedis.params.ScanParams;
+import redis.clients.jedis.params.SetParams;
+import redis.clients.jedis.resps.ScanResult;
 import redis.clients.jedis.search.Document;
-import redis.clients.jedis.search.IndexDefinition;
-import redis.clients.jedis.search.IndexOptions;
+import redis.clients.jedis.search.Schema;
 import redis.clients.jedis.search.SearchResult;
+import redis.clients.jedis.search.aggr.AggregationBuilder;
+import redis.clients.jedis.search.aggr.AggregationResult;
+import redis.clients.jedis.util.SafeEncoder;
 
 /**
  * Cette classe interface l'univers redis avec l'univers POJO.
  * 
  * @author ludovic.terral
  */
-public class ExtendRedisClient implements Serializable
+public class ExtendRedisClient implements Serializable, AutoCloseable
 {    
     // ----------- Attibuts -----------
     private static final long serialVersionUID = -3968936170594429132L;
     private static final Log LOG = LogFactory.getLog(ExtendRedisClient.class);
     
     private static final String NO_ENTITY_FIND_WITH_EXPRESSION_MSG = "No entity find with expression ";
-    private static final String KEY_FIELD = "key";
+    static final String KEY_FIELD = "key";
     private static final String TYPE_FIELD = "type_object";
+    private static final String PAYLOAD_FIELD = "payload";
+    private static final String VERSION_FIELD = "version";
+    private static final String ROOT_PATH = "$";
+    private static final String HASH_TYPE = "hash";
+    private static final String SAMPLE_OID = "0";
+    private static final String JSON_TYPE_PATH = "$."+TYPE_FIELD;
+    private static final int DEFAULT_BULK_CHUNK_SIZE = 500;
+    private static final int DEFAULT_SCAN_COUNT = 1000;
+    private static final int DEFAULT_STREAM_PAGE_SIZE = 500;
+    private static final long STREAM_CURSOR_MAX_IDLE = 300000;
     
     private transient GenericObjectPoolConfig<Connection> poolConfig;
+    private transient RedisConnectionManager connectionManager;
+    private transient RedisIndexRegistry indexRegistry;
+    private transient RedisEntityMapper entityMapper;
+    private transient RedisValueCompressor compressor;
+    private transient RedisOrphanSweeper orphanSweeper;
+    private transient RedisScriptRegistry scriptRegistry;
+    private transient volatile RedisNearCache nearCache;
+    private transient volatile RedisReplicaRouter replicaRouter;
+    private transient JedisClientConfig clusterClientConfig;
     private String host="";
     private int port=0;
     private String redisUri="";
+    private Set<HostAndPort> clusterNodes=Collections.emptySet();
+    private int bulkChunkSize=DEFAULT_BULK_CHUNK_SIZE;
+    private boolean inlineSearchPayload=false;
+    private RedisStorageMode storageMode=RedisStorageMode.HASH;
+    private RedisValueCodec valueCodec=RedisValueCodecs.json();
+    private int compressionThreshold=0;
+    private int streamPageSize=DEFAULT_STREAM_PAGE_SIZE;
 
 
     
@@ -103,41 +167,117 @@ public class ExtendRedisClient implements Serializable
         this.poolConfig = getConfigForPool(20);
         this.host = host;
         this.port = port;
+        getConnectionManager().warmUp();
     }
     public ExtendRedisClient(GenericObjectPoolConfig<Connection> poolConfig, String host, int port)
     {
         this.poolConfig = poolConfig;
         this.host = host;
         this.port = port;
+        getConnectionManager().warmUp();
     }
     public ExtendRedisClient(GenericObjectPoolConfig<Connection> poolConfig, String redisUri)
     {
         this.poolConfig = poolConfig;
         this.redisUri = redisUri;
+        getConnectionManager().warmUp();
     }
     public ExtendRedisClient(String redisUri) 
     {
         this.poolConfig = getConfigForPool(20);
         this.redisUri = redisUri;
+        getConnectionManager().warmUp();
+    }
+    /**
+     * Ce constructeur connecte le client a un cluster redis. Les hash
+     * d'index portent alors le hash tag de la cle de leur entite afin
+     * d'etre places dans le meme slot. Les cles des entites ne doivent
+     * pas contenir d'accolade hors d'un hash tag.
+     * 
+     * Les recherches necessitent un cluster dote du module de recherche
+     * distribue.
+     * 
+     * @param poolConfig configuration du pool de chaque noeud
+     * @param clusterNodes noeuds d'amorce du cluster
+     */
+    public ExtendRedisClient(GenericObjectPoolConfig<Connection> poolConfig, Set<HostAndPort> clusterNodes)
+    {
+        this(poolConfig, clusterNodes, DefaultJedisClientConfig.builder().build());
+    }
+    /**
+     * @param poolConfig configuration du pool de chaque noeud
+     * @param clusterNodes noeuds d'amorce du cluster
+     * @param clientConfig utilisateur, mot de passe et TLS des noeuds
+     */
+    public ExtendRedisClient(GenericObjectPoolConfig<Connection> poolConfig, Set<HostAndPort> clusterNodes, 
+            JedisClientConfig clientConfig)
+    {
+        this.poolConfig = poolConfig;
+        this.clusterNodes = clusterNodes;
+        this.clusterClientConfig = clientConfig;
+        getConnectionManager().warmUp();
+    }
+    public ExtendRedisClient(Set<HostAndPort> clusterNodes)
+    {
+        this(getConfigForPool(20), clusterNodes);
     }
     
     
     
+    /**
+     * Cette methode renvoie les cles qui correspondent a une pattern.
+     * SCAN pouvant renvoyer une cle plusieurs fois, les doublons sont
+     * elimines.
+     * 
+     * @param pattern
+     * 
+     * @return la liste des cles.
+     */
     public List<String> getKeys(String pattern)
     {
-        List<String> result = new ArrayList<>(); 
-        try (JedisPooled redisClient = getJedisPooled())
+        Set<String> result = new LinkedHashSet<>(); 
+        Iterator<String> keys = iterateKeys(pattern, DEFAULT_SCAN_COUNT);
+        while (keys.hasNext())
         {
-            String internamPattern = StringUtil.isEmpty(pattern)?"*":pattern;
-            result.addAll(redisClient.keys(internamPattern));
+            result.add(keys.next());
         }
-        return result;
+        return new ArrayList<>(result);
+    }
+    
+    
+    
+    /**
+     * Cette methode parcourt les cles qui correspondent a une pattern
+     * par curseur SCAN, sans charger tout le keyspace.
+     * Si la pattern n'est pas renseignee le wildcard est utilise.
+     * SCAN pouvant renvoyer une cle plusieurs fois, le flux n'est pas
+     * deduplique : appliquer distinct() si necessaire.
+     * 
+     * @param pattern
+     * @param count nombre de cles demandees au serveur par iteration
+     * 
+     * @return le flux des cles.
+     */
+    public Stream<String> scanKeys(String pattern, int count)
+    {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterateKeys(pattern, count), 
+                Spliterator.ORDERED | Spliterator.NONNULL), false);
+    }
+    
+    
+    
+    public Iterator<String> iterateKeys(String pattern, int count)
+    {
+        String internamPattern = StringUtil.isEmpty(pattern)?"*":pattern;
+        return new RedisKeyScanIterator(getConnectionManager().getPrimaryNodes(), internamPattern, count>0?count:DEFAULT_SCAN_COUNT);
     }
     
     
     
     /**
      * Cette methode renvoie la valeur associée à une clé
+     * En mode {@link RedisStorageMode#JSON}, la lecture passe par
+     * {@link #get(String...)} pour relire aussi les documents JSON.
      * @param key
      * 
      * @return null si pas de valeur.
@@ -147,9 +287,13 @@ public class ExtendRedisClient implements Serializable
         String result = "";
         if (key!=null)
         {
-            try (JedisPooled redisClient = getJedisPooled())
+            if (RedisStorageMode.JSON.equals(storageMode))
             {
-                result = redisClient.get(key);
+                result = get(new String[]{key}).get(key);
+            }
+            else
+            {
+                result = readText(read(redisClient -> redisClient.get(SafeEncoder.encode(key))));
             }
         }
         return result;
@@ -157,15 +301,20 @@ public class ExtendRedisClient implements Serializable
 
 
 
+    /**
+     * Cette methode lit les valeurs des cles fournies, dans leur ordre,
+     * comme {@link #get(String...)}.
+     * 
+     * @param arrays
+     * 
+     * @return la liste des valeurs, null pour une cle absente
+     */
     public List<String> mget(String[] arrays)
     {
         List<String> result = new ArrayList<>();
-        try (JedisPooled redisClient = getJedisPooled())
+        if (arrays!=null && arrays.length>0)
         {
-            if (arrays!=null && arrays.length>0)
-            {
-                result.addAll(redisClient.mget(arrays));
-            }
+            result = readValues(Arrays.asList(arrays));
         }
         return result;
     }
@@ -183,13 +332,12 @@ public class ExtendRedisClient implements Serializable
         boolean result = false;
         if (key!=null)
         {
-            try (JedisPooled redisClient = getJedisPooled())
+            UnifiedJedis redisClient = getRedisClient();
+            if (redisClient.del(key)>0)
             {
-                if (redisClient.del(key)>0)
-                {
-                    result = true;
-                } 
-            }
+                result = true;
+            } 
+            invalidateNearCache(key);
         }
         return result;
     }
@@ -198,6 +346,7 @@ public class ExtendRedisClient implements Serializable
 
     /**
      * Cette methode supprime les clés et leurs valeurs dans le cache.
+     * En mode cluster, les suppressions sont regroupees par slot.
      * @param keys
      * 
      * @return true si la suppression est effective.
@@ -207,12 +356,14 @@ public class ExtendRedisClient implements Serializable
         boolean result = false;
         if (keys!=null)
         {
-            try (JedisPooled redisClient = getJedisPooled())
+            UnifiedJedis redisClient = getRedisClient();
+            AtomicLong removed = new AtomicLong();
+            getConnectionManager().forEachSlot(Arrays.asList(keys), Function.identity(), 
+                    group -> removed.addAndGet(redisClient.del(group.toArray(new String[0]))));
+            result = removed.get()>0;
+            for (String key : keys)
             {
-                if (redisClient.del(keys)>0)
-                {
-                    result = true;
-                }
+                invalidateNearCache(key);
             }
         }
         return result;
@@ -222,18 +373,26 @@ public class ExtendRedisClient implements Serializable
     
     public boolean clearDb()
     {
-        boolean result = false;
-        List<String> keys = getKeys("*");
-        if (CollectionUtil.isNotEmpty(keys))
+        UnifiedJedis redisClient = getRedisClient();
+        AtomicLong removed = new AtomicLong();
+        List<String> batch = new ArrayList<>(); 
+        Iterator<String> keys = iterateKeys("*", DEFAULT_SCAN_COUNT);
+        while (keys.hasNext())
         {
-            try (JedisPooled redisClient = getJedisPooled())
+            batch.add(keys.next());
+            if (batch.size()>=DEFAULT_SCAN_COUNT || !keys.hasNext())
             {
-                if (redisClient.del(keys.toArray(new String[0]))>0)
-                {
-                    result = true;
-                }
+                getConnectionManager().forEachSlot(batch, Function.identity(), 
+                        group -> removed.addAndGet(redisClient.unlink(group.toArray(new String[0]))));
+                batch.clear();
             }
         }
+        boolean result = removed.get()>0;
+        RedisNearCache cache = nearCache;
+        if (cache!=null)
+        {
+            cache.invalidateAll();
+        }
         return result;
     }
     
@@ -242,11 +401,11 @@ public class ExtendRedisClient implements Serializable
     public boolean ping()
     {
         boolean result = false;
-        try (JedisPooled redisClient = getJedisPooled())
+        for (JedisPooled node : getConnectionManager().getPrimaryNodes())
         {
-            redisClient.keys("*");
-            result = true;
+            node.sendCommand(Command.PING);
         }
+        result = true;
         return result;
     }
       
@@ -262,12 +421,16 @@ public class ExtendRedisClient implements Serializable
     public int size(String pattern)
     {
         String internamPattern = StringUtil.isEmpty(pattern)?"*":pattern;
-        List<String> result  = new ArrayList<>();
-        try (JedisPooled redisClient = getJedisPooled())
+        if ("*".equals(internamPattern))
         {
-            result.addAll(redisClient.keys(internamPattern));
+            long result = 0;
+            for (JedisPooled node : getConnectionManager().getPrimaryNodes())
+            {
+                result += (Long) node.sendCommand(Command.DBSIZE);
+            }
+            return (int) result;
         }
-        return result.size();
+        return (int) scanKeys(internamPattern, DEFAULT_SCAN_COUNT).distinct().count();
     }
     
     
@@ -281,8 +444,14 @@ public class ExtendRedisClient implements Serializable
     public boolean containsKey(String pattern)
     {  
         boolean result;
-        List<String> tmp  = getKeys(pattern);
-        result = !tmp.isEmpty();
+        if (StringUtil.isNotEmpty(pattern) && !isGlobPattern(pattern))
+        {
+            result = getRedisClient().exists(pattern);
+        }
+        else
+        {
+            result = iterateKeys(pattern, DEFAULT_SCAN_COUNT).hasNext();
+        }
         return result;
     }
         
@@ -300,21 +469,32 @@ public class ExtendRedisClient implements Serializable
         boolean result=false;
         if (!StringUtil.isEmpty(key))
         {
-            try (JedisPooled redisClient = getJedisPooled())
-            {
-                result = !StringUtil.isEmpty(redisClient.set(key,value));
-            }
+            UnifiedJedis redisClient = getRedisClient();
+            result = !StringUtil.isEmpty(redisClient.set(SafeEncoder.encode(key), writeText(value)));
         }
         return result;
     }
+    /**
+     * Cette methode insère une clé et sa valeur avec une expiration en une
+     * seule commande SET ... PX.
+     * @param key
+     * @param value
+     * @param ttl expiration en ms, sans expiration si 0 ou moins
+     * 
+     * @return true si l'enregistrement est effectif.
+     */
     public boolean put(String key, String value, long ttl)
     {
-        boolean result=put(key,value);
-        try (JedisPooled redisClient = getJedisPooled())
+        if (ttl<=0)
+        {
+            return put(key, value);
+        }
+        boolean result=false;
+        if (!StringUtil.isEmpty(key))
         {
-            redisClient.pexpire(key, ttl);
+            UnifiedJedis redisClient = getRedisClient();
+            result = !StringUtil.isEmpty(redisClient.set(SafeEncoder.encode(key), writeText(value), SetParams.setParams().px(ttl)));
         }
-        result &= true;
         return result;
     }
     
@@ -329,30 +509,59 @@ public class ExtendRedisClient implements Serializable
      */
     public boolean put(Map<String,String> entries)
     {
-        boolean result;
-        List<String> tmp = new ArrayList<>();        
-        for (Entry<String, String> entry : entries.entrySet())
-        {
-            tmp.add(entry.getKey());
-            tmp.add(entry.getValue());
-        }                
-        try (JedisPooled redisClient = getJedisPooled())
-        {
-            result = redisClient.mset(tmp.toArray(new String[0])).contains("OK");
-        }
-        return result;
+        UnifiedJedis redisClient = getRedisClient();
+        AtomicBoolean result = new AtomicBoolean(true);
+        getConnectionManager().forEachSlot(entries.entrySet(), Entry::getKey, group -> {
+            List<byte[]> tmp = new ArrayList<>();        
+            for (Entry<String, String> entry : group)
+            {
+                tmp.add(SafeEncoder.encode(entry.getKey()));
+                tmp.add(writeText(entry.getValue()));
+            }                
+            if (!redisClient.mset(tmp.toArray(new byte[0][])).contains("OK"))
+            {
+                result.set(false);
+            }
+        });
+        return result.get();
     }
+    /**
+     * Cette methode enregistre les associations clé valeur avec une
+     * expiration. Chaque clé est ecrite par SET ... PX, l'ensemble est
+     * envoye par pipeline en un seul aller-retour.
+     * 
+     * @param entries
+     * @param ttl expiration en ms, sans expiration si 0 ou moins
+     * 
+     * @return true si l'écriture est ok
+     */
     public boolean put(Map<String,String> entries, long ttl)
     {
-        boolean result = put(entries);
-        for (String key : entries.keySet())
+        if (ttl<=0)
         {
-            try (JedisPooled redisClient = getJedisPooled())
+            return put(entries);
+        }
+        SetParams params = SetParams.setParams().px(ttl);
+        AtomicBoolean result = new AtomicBoolean(true);
+        getConnectionManager().forEachSlot(entries.entrySet(), Entry::getKey, group -> {
+            List<Response<String>> responses = new ArrayList<>();
+            try (Pipeline pipeline = getConnectionManager().pipelined(group.get(0).getKey()))
             {
-                redisClient.pexpire(key, ttl);
+                for (Entry<String, String> entry : group)
+                {
+                    responses.add(pipeline.set(SafeEncoder.encode(entry.getKey()), writeText(entry.getValue()), params));
+                }
+                pipeline.sync();
             }
-        }  
-        return result;
+            for (Response<String> response : responses)
+            {
+                if (!"OK".equals(response.get()))
+                {
+                    result.set(false);
+                }
+            }
+        });
+        return result.get();
     }
     
     
@@ -361,6 +570,9 @@ public class ExtendRedisClient implements Serializable
      * Cette methode récupère les valeurs associées à la liste des clés
      * fournie en paramètres
      * 
+     * En mode {@link RedisStorageMode#JSON}, les cles d'entites absentes
+     * du MGET sont relues par JSON.MGET sur le chemin de l'entite.
+     * 
      * @param keys
      * 
      * @return la liste des valeurs
@@ -368,44 +580,80 @@ public class ExtendRedisClient implements Serializable
     public Map<String, String> get(String... keys)
     {
         Map<String,String> result = new HashMap<>();
-        try (JedisPooled redisClient = getJedisPooled())
+        List<String> values = readValues(Arrays.asList(keys));
+        for (int ix=0; ix<keys.length; ix++)
         {
-            List<String> values = redisClient.mget(keys);
-            for (int ix=0; ix<keys.length; ix++)
-            {
-                result.put(keys[ix], values.get(ix));
-            }
+            result.put(keys[ix], values.get(ix));
         }
         return result;
     }
     
     
     
+    /**
+     * Cette methode charge l'entite associee a la cle. En mode
+     * {@link RedisStorageMode#JSON}, le document est lu par JSON.GET.
+     * 
+     * @param key
+     * 
+     * @return l'entite ou null
+     */
     public Object getTypedFromKey(String key)
     {
         Object result = null;        
         if (!StringUtil.isEmpty(key))
         {            
-            String value = get(key);
-            result = JsonUtil.transformJsonToObject(value, getTypeReferenceFromKey(key));
+            if (RedisStorageMode.JSON.equals(storageMode))
+            {
+                Object value = read(redisClient -> redisClient.sendCommand(key, JsonCommand.GET, key, RedisJsonDocument.ENTITY_PATH));
+                String json = value!=null?RedisJsonDocument.unwrap(decodeValue(value)):null;
+                result = json!=null?getEntityMapper().readFromKey(key, json):null;
+            }
+            else
+            {
+                byte[] value = read(redisClient -> redisClient.get(SafeEncoder.encode(key)));
+                result = getEntityMapper().decodeFromKey(key, getCompressor().decompress(value), valueCodec);
+            }
         } 
         return result;
     }
     
     
 
+    /**
+     * Cette methode charge les entites associees aux cles. En mode
+     * {@link RedisStorageMode#JSON}, les documents sont lus par JSON.MGET.
+     * 
+     * @param keys
+     * 
+     * @return les entites trouvees
+     */
     @SuppressWarnings("unchecked")
     public <T extends Dao> List<T> getTypedFromKeys(List<String> keys)
     {
         List<T> result = new ArrayList<>();
         if (keys!=null && !keys.isEmpty())
         {            
-            Map<String, String> convertMap = get(keys.toArray(new String[0]));
-            for (Entry<String, String> entry : convertMap.entrySet())
+            RedisEntityMapper mapper = getEntityMapper();
+            RedisValueCompressor compressor = getCompressor();
+            boolean jsonMode = RedisStorageMode.JSON.equals(storageMode);
+            List<String> documents = jsonMode?jsonMgetPerSlot(keys):null;
+            List<byte[]> values = jsonMode?null:mgetPerSlot(keys);
+            for (int ix=0; ix<keys.size(); ix++)
             {
-                if (StringUtil.isNotEmpty(entry.getValue()))
+                T entity;
+                if (jsonMode)
                 {
-                    result.add((T) JsonUtil.transformJsonToObject(entry.getValue(), getTypeReferenceFromKey(entry.getKey())));
+                    String json = documents.get(ix);
+                    entity = json!=null?(T) mapper.readFromKey(keys.get(ix), json):null;
+                }
+                else
+                {
+                    entity = (T) mapper.decodeFromKey(keys.get(ix), compressor.decompress(values.get(ix)), valueCodec);
+                }
+                if (entity!=null)
+                {
+                    result.add(entity);
                 }
             }
         } 
@@ -421,45 +669,13 @@ public class ExtendRedisClient implements Serializable
         }
         
         //creer ou raffraichir le schema
-        try (JedisPooled redisClient = getJedisPooled())
+        try
         {
-            try 
-            {
-                LOG.debug(redisClient.ftInfo(object.getClass().getName()));
-            }
-            catch(JedisDataException jde)
-            {
-                IndexOptions options = IndexOptions.defaultOptions();
-                if (object.getTTL()>0)
-                {
-                    options.setTemporary(object.getTTL()/1000);
-                }
-                IndexDefinition rule = new IndexDefinition().setPrefixes(object.getClass().getName()+":");
-                options.setDefinition(rule);
-                redisClient.ftCreate(object.getClass().getName(), options, object.getIndexSchema());
-            }      
-                        
-            if (object instanceof OptimisticDao)
-            {
-                ((OptimisticDao)object).setVersion(Calendar.getInstance());
-            }
-            if (StringUtil.isEmpty(object.getOid()))
-            {
-                object.setOid(GuidGenerator.getGUID(object));
-            }
-            String json = JsonUtil.transformObjectToJson(object, false);
-            redisClient.set(object.getKey(), json);
-            Map<String, Object> indexField = new HashMap<>(object.getIndexFieldValues());
-            indexField.put("oid", object.getOid());
-            indexField.put(KEY_FIELD, object.getKey());
-            indexField.put(TYPE_FIELD, object.getClass().getName());
-            Map<String, String> jsonIndexField = convertObjectMapToJsonMap(indexField);
-            redisClient.hset(object.getClass().getName()+":"+object.getOid(), jsonIndexField);
-            if (object.getTTL()>0)
-            {
-                redisClient.pexpire(object.getKey(), object.getTTL());
-                redisClient.pexpire(object.getClass().getCanonicalName()+":"+object.getOid(), object.getTTL());
-            }
+            UnifiedJedis redisClient = getRedisClient();
+            prepareForMerge(object);
+            getIndexRegistry().ensureIndex(redisClient, object, storageMode);
+            getScriptRegistry().eval(redisClient, getMergeScript(), getMergeKeys(object), getMergeArgs(object));
+            invalidateNearCache(object.getKey());
         }
         catch(Exception e)
         {
@@ -470,170 +686,1780 @@ public class ExtendRedisClient implements Serializable
     
     
     
-    public <T extends RedisSearchDao> List<T> merge(List<T> objects)
+    /**
+     * Cette methode enregistre une entite versionnee uniquement si la
+     * version stockee est toujours celle lue par l'appelant. Le controle
+     * et l'ecriture sont realises atomiquement par le serveur, sans verrou.
+     * Une entite sans version est consideree comme nouvelle et ne doit pas
+     * exister. Les entites non versionnees sont enregistrees par
+     * {@link #merge(RedisSearchDao)}.
+     * 
+     * @param object l'entite portant la version lue
+     * 
+     * @return l'entite portant sa nouvelle version
+     * 
+     * @throws RedisOptimisticLockException si l'entite a ete modifiee ou
+     * supprimee depuis sa lecture, l'entite conserve alors sa version
+     */
+    public <T extends RedisSearchDao> T mergeOptimistic(T object) throws RedisOptimisticLockException
     {
-        if (CollectionUtil.isEmpty(objects))
+        if (!(object instanceof OptimisticDao))
         {
-            return objects;
+            return merge(object);
         }
-        for (T object : objects)
+        OptimisticDao versioned = (OptimisticDao) object;
+        Calendar expectedVersion = versioned.getVersion();
+        UnifiedJedis redisClient = getRedisClient();
+        prepareForMerge(object);
+        if (expectedVersion!=null && versioned.getVersion().getTimeInMillis()<=expectedVersion.getTimeInMillis())
         {
-            merge(object);
+            Calendar version = Calendar.getInstance();
+            version.setTimeInMillis(expectedVersion.getTimeInMillis()+1);
+            versioned.setVersion(version);
         }
-        return objects;
+        getIndexRegistry().ensureIndex(redisClient, object, storageMode);
+        List<byte[]> args = new ArrayList<>();
+        args.add(SafeEncoder.encode(expectedVersion!=null?Long.toString(expectedVersion.getTimeInMillis()):""));
+        args.addAll(getMergeArgs(object));
+        RedisScript script = RedisStorageMode.JSON.equals(storageMode)?RedisScript.MERGE_OPTIMISTIC_JSON:RedisScript.MERGE_OPTIMISTIC_HASH;
+        Object applied = getScriptRegistry().eval(redisClient, script, getMergeKeys(object), args);
+        invalidateNearCache(object.getKey());
+        if (!Long.valueOf(1).equals(applied))
+        {
+            versioned.setVersion(expectedVersion);
+            throw new RedisOptimisticLockException(object.getKey(), expectedVersion);
+        }
+        return object;
     }
     
     
     
-    public <T extends RedisSearchDao> void remove(Class<T> entityClass, String id) throws BusinessException
+    public <T extends RedisSearchDao> List<T> merge(List<T> objects)
     {
-        try (JedisPooled redisClient = getJedisPooled())
+        if (CollectionUtil.isEmpty(objects))
         {
-            T tmp = entityClass.getDeclaredConstructor().newInstance();
-            tmp.setOid(id);
-            redisClient.del(tmp.getKey());
+            return objects;
         }
-        catch(Exception e) 
+        for (RedisMergeOutcome<T> outcome : mergeAll(objects, bulkChunkSize))
         {
-            ExceptionUtil.traiterException(e, "Impossible de supprimer l'objet", false);
+            if (!outcome.isMerged())
+            {
+                LOG.fatal("Unable to merge "+outcome.getEntity().getKey()+": "+outcome.getErrorMessage());
+            }
         }
-    }  
+        return objects;
+    }
     
     
     
-    public <T extends RedisSearchDao> T findById(Class<T> entityClass, String id) 
-        throws BusinessException
+    /**
+     * Cette methode met a jour uniquement les champs fournis d'une entite
+     * deja enregistree, sans reecrire le document complet. Elle n'est
+     * disponible qu'en mode de stockage {@link RedisStorageMode#JSON},
+     * dans les autres cas l'entite est enregistree entierement.
+     * 
+     * @param object l'entite portant les nouvelles valeurs
+     * @param fields les proprietes a mettre a jour
+     * 
+     * @return l'entite
+     */
+    public <T extends RedisSearchDao> T mergeFields(T object, String... fields)
     {
-        T result = null;
-        try (JedisPooled redisClient = getJedisPooled())
-        {
-            T tmp = entityClass.getDeclaredConstructor().newInstance();
-            tmp.setOid(id);
-            String json = redisClient.get(tmp.getKey());
-            result = JsonUtil.transformJsonToObject(json, getTypeReferenceFromClass(entityClass));
-        }
-        catch (Exception e)
+        if (object==null || !RedisStorageMode.JSON.equals(storageMode) || StringUtil.isEmpty(object.getOid()) ||
+            fields==null || fields.length==0)
         {
-            ExceptionUtil.traiterException(e, "Impossible de charger la classe", true);
+            return merge(object);
         }
-        if (result == null)
+        prepareForMerge(object);
+        List<String> updatedFields = new ArrayList<>(Arrays.asList(fields));
+        if (object instanceof OptimisticDao)
         {
-            LOG.error("No entity find with id "+id);
-            throw new BusinessException("No entity find with id "+id);
+            updatedFields.add(VERSION_FIELD);
         }
-        return result;
-    }
-
-
-
-    public <T extends RedisSearchDao> List<T> findByExpression(Class<T> entityClass, String expression) 
-        throws BusinessException
-    {
-        return findByExpression(entityClass, new EQuery(expression));
-    }
-
-
-
-    public <T extends RedisSearchDao> List<T> findByExpression(Class<T> entityClass, EQuery query) 
-        throws BusinessException
-    {
-        List<T> result = new ArrayList<>();
+        String json = getEntityMapper().write(object);
+        Map<String, String> entityValues = RedisJsonDocument.extractFields(json, updatedFields);
+        Map<String, String> indexValues = convertObjectMapToJsonMap(object.getIndexFieldValues());
+        Schema schema = object.getIndexSchema();
         
-        try (JedisPooled redisClient = getJedisPooled())
+        List<Response<Object>> responses = new ArrayList<>();
+        try (Pipeline pipeline = getConnectionManager().pipelined(object.getKey()))
         {
-            SearchResult res = redisClient.ftSearch(entityClass.getName(), query);
-            if (res.getTotalResults()>0)
+            for (String field : updatedFields)
             {
-                List<String> keys = new ArrayList<>();
-                for (Document doc : res.getDocuments()) 
-                {
-                    if (doc!=null && 
-                        StringUtil.isNotEmpty((String) doc.get(KEY_FIELD)) && 
-                        doc.get(TYPE_FIELD).equals(entityClass.getName()))
-                    {
-                        keys.add((String) doc.get(KEY_FIELD));
-                    }
-                }
-                if (CollectionUtil.isNotEmpty(keys))
+                responses.add(pipeline.sendCommand(JsonCommand.SET, object.getKey(), 
+                        RedisJsonDocument.ENTITY_PATH+"."+field, entityValues.get(field)));
+                if (indexValues.containsKey(field))
                 {
-                    result = getTypedFromKeys(keys);
+                    responses.add(pipeline.sendCommand(JsonCommand.SET, object.getKey(), RedisJsonDocument.INDEX_PATH+"."+field, 
+                            RedisJsonDocument.toIndexValue(indexValues.get(field), RedisJsonDocument.isNumeric(schema, field))));
                 }
             }
+            pipeline.sync();
         }
-        if (CollectionUtil.isEmpty(result))
+        invalidateNearCache(object.getKey());
+        for (Response<Object> response : responses)
         {
-            LOG.warn(NO_ENTITY_FIND_WITH_EXPRESSION_MSG+query.toString());
-            throw new BusinessException(NO_ENTITY_FIND_WITH_EXPRESSION_MSG+query.toString());
+            try
+            {
+                if (response.get()==null)
+                {
+                    return merge(object);
+                }
+            }
+            catch (JedisDataException jde)
+            {
+                LOG.debug(jde);
+                return merge(object);
+            }
         }
-        return result;
+        return object;
     }
     
-
-
-    public JedisPooled getJedisPooled()
+    
+    
+    /**
+     * Cette methode enregistre une liste d'entites en masse. Les entites
+     * sont regroupees par classe, l'index est verifie une fois par classe
+     * et les ecritures sont envoyees par pipeline de chunkSize entites.
+     * En mode cluster, chaque chunk est decoupe par slot et les pipelines
+     * sont envoyes en parallele.
+     * 
+     * @param objects
+     * @param chunkSize
+     * 
+     * @return le resultat de l'enregistrement de chaque entite, dans l'ordre de la liste.
+     */
+    public <T extends RedisSearchDao> List<RedisMergeOutcome<T>> mergeAll(List<T> objects, int chunkSize)
     {
-        JedisPooled jedis = null;
-        if (StringUtil.isNotEmpty(redisUri))
+        List<RedisMergeOutcome<T>> result = new ArrayList<>();
+        if (CollectionUtil.isEmpty(objects))
+        {
+            return result;
+        }
+        int internalChunkSize = chunkSize>0?chunkSize:DEFAULT_BULK_CHUNK_SIZE;
+        Map<Class<?>, List<T>> objectsByClass = new LinkedHashMap<>();
+        for (T object : objects)
+        {
+            if (object!=null)
+            {
+                objectsByClass.computeIfAbsent(object.getClass(), k -> new ArrayList<>()).add(object);
+            }
+        }
+        
+        UnifiedJedis redisClient = getRedisClient();
+        Map<T, RedisMergeOutcome<T>> outcomes = Collections.synchronizedMap(new IdentityHashMap<>());
+        for (List<T> classObjects : objectsByClass.values())
         {
             try
             {
-                jedis = new JedisPooled(poolConfig, new URI(redisUri));
+                for (T object : classObjects)
+                {
+                    prepareForMerge(object);
+                }
+                getIndexRegistry().ensureIndex(redisClient, classObjects.get(0), storageMode);
+            }
+            catch (Exception e)
+            {
+                LOG.fatal(e,e);
+                for (T object : classObjects)
+                {
+                    outcomes.put(object, RedisMergeOutcome.failure(object, e.getMessage()));
+                }
+                continue;
             }
-            catch (URISyntaxException e)
+            for (int ix=0; ix<classObjects.size(); ix+=internalChunkSize)
             {
-                LOG.error(e);
+                List<T> chunk = classObjects.subList(ix, Math.min(ix+internalChunkSize, classObjects.size()));
+                getConnectionManager().forEachSlot(chunk, RedisSearchDao::getKey, group -> mergeChunk(redisClient, group, outcomes));
             }
         }
-        else
+        for (T object : objects)
         {
-            jedis = new JedisPooled(poolConfig, host, port);
+            if (object!=null)
+            {
+                result.add(outcomes.get(object));
+            }
         }
-        return jedis;
+        return result;
     }
     
     
     
-    private <T extends RedisSearchDao> TypeReference<T> getTypeReferenceFromClass(Class<T> classz)
+    public boolean isInlineSearchPayload()
     {
-        return new TypeReference<T>(){
-            @Override
-            public Type getType() {
-                return classz;
-            }
-        };
+        return inlineSearchPayload;
     }
-
-
-
-    private <T> TypeReference<?> getTypeReferenceFromKey(String key)
+    /**
+     * Ce mode copie le json de l'entite dans un champ non indexe du hash
+     * d'index. Les recherches renvoient alors directement l'entite en un
+     * seul aller-retour, au prix d'une copie supplementaire en memoire.
+     * 
+     * @param inlineSearchPayload
+     */
+    public void setInlineSearchPayload(boolean inlineSearchPayload)
     {
-        String cleanKey = key.substring(key.indexOf(':', key.indexOf(':')+1)+1,key.indexOf(':', key.indexOf(':', key.indexOf(':')+1)+1));
-        return new TypeReference<T>(){
-            @Override
-            public Type getType() {
-                Type type = null;
-                try
-                {
-                    type = Class.forName(cleanKey);
-                }
-                catch (ClassNotFoundException e)
-                {
-                    LOG.debug(e);
-                }
-                if (type==null)
-                {
-                    try
-                    {
-                        type = Thread.currentThread().getContextClassLoader().loadClass(cleanKey);
-                    }
-                    catch (ClassNotFoundException e)
-                    {
-                        LOG.fatal(e);
-                    }
-                }
-                return type;
-            }
-        };
+        this.inlineSearchPayload = inlineSearchPayload;
+    }
+    
+    
+    
+    public RedisStorageMode getStorageMode()
+    {
+        return storageMode;
+    }
+    /**
+     * Ce mode definit la forme de stockage des entites. Le mode
+     * {@link RedisStorageMode#JSON} necessite le module RedisJSON.
+     * 
+     * @param storageMode
+     */
+    public void setStorageMode(RedisStorageMode storageMode)
+    {
+        this.storageMode = storageMode!=null?storageMode:RedisStorageMode.HASH;
+    }
+    
+    
+    
+    public RedisValueCodec getValueCodec()
+    {
+        return valueCodec;
+    }
+    /**
+     * Cette methode definit le format d'ecriture du corps des entites en
+     * mode {@link RedisStorageMode#HASH}. Les valeurs deja stockees dans
+     * un autre format restent lisibles grace a leur entete. Le format
+     * reste propre a ce client et n'est pas enregistre globalement.
+     * 
+     * @param valueCodec le format, json si null
+     */
+    public void setValueCodec(RedisValueCodec valueCodec)
+    {
+        this.valueCodec = valueCodec!=null?valueCodec:RedisValueCodecs.json();
+    }
+    
+    
+    
+    public int getCompressionThreshold()
+    {
+        return compressionThreshold;
+    }
+    /**
+     * Cette methode active la compression des valeurs dont la taille
+     * atteint le seuil. Les valeurs compressees sont relues de facon
+     * transparente, que la compression soit active ou non.
+     * 
+     * @param compressionThreshold taille minimale en octets, 0 pour desactiver
+     */
+    public void setCompressionThreshold(int compressionThreshold)
+    {
+        this.compressionThreshold = Math.max(0, compressionThreshold);
+    }
+    
+    
+    
+    /**
+     * Cette methode renvoie l'activite de compression du client.
+     * 
+     * @return les statistiques de compression.
+     */
+    public RedisCompressionStatistics getCompressionStatistics()
+    {
+        return getCompressor().getStatistics();
+    }
+    
+    
+    
+    public int getBulkChunkSize()
+    {
+        return bulkChunkSize;
+    }
+    public void setBulkChunkSize(int bulkChunkSize)
+    {
+        this.bulkChunkSize = bulkChunkSize;
+    }
+    
+    
+    
+    /**
+     * Cette methode supprime une entite et son hash d'index de facon
+     * atomique, par un script.
+     * 
+     * @param entityClass
+     * @param id
+     * 
+     * @throws BusinessException
+     */
+    public <T extends RedisSearchDao> void remove(Class<T> entityClass, String id) throws BusinessException
+    {
+        try
+        {
+            UnifiedJedis redisClient = getRedisClient();
+            String key = RedisKeyTemplate.of(entityClass).getKey(id);
+            getScriptRegistry().eval(redisClient, RedisScript.REMOVE, getRemoveKeys(key, entityClass, id), Collections.emptyList());
+            invalidateNearCache(key);
+        }
+        catch(Exception e) 
+        {
+            ExceptionUtil.traiterException(e, "Impossible de supprimer l'objet", false);
+        }
+    }  
+    
+    
+    
+    /**
+     * Cette methode supprime des entites et leurs hash d'index. Chaque
+     * entite est supprimee de facon atomique par un script, les appels
+     * sont envoyes par pipeline de bulkChunkSize entites, decoupes par
+     * slot en mode cluster.
+     * 
+     * @param entityClass
+     * @param ids
+     * 
+     * @return le nombre d'entites effectivement supprimees.
+     */
+    public <T extends RedisSearchDao> long removeAll(Class<T> entityClass, Collection<String> ids)
+    {
+        long result = 0;
+        if (ids==null || ids.isEmpty())
+        {
+            return result;
+        }
+        RedisKeyTemplate template = RedisKeyTemplate.of(entityClass);
+        List<String> oids = new ArrayList<>(ids);
+        AtomicLong removed = new AtomicLong();
+        for (int from=0; from<oids.size(); from+=bulkChunkSize)
+        {
+            getConnectionManager().forEachSlot(oids.subList(from, Math.min(from+bulkChunkSize, oids.size())), template::getKey, 
+                    group -> removed.addAndGet(removeChunk(entityClass, template, group)));
+        }
+        result = removed.get();
+        return result;
+    }
+    
+    
+    
+    public <T extends RedisSearchDao> T findById(Class<T> entityClass, String id) 
+        throws BusinessException
+    {
+        T result = null;
+        try
+        {
+            String key = RedisKeyTemplate.of(entityClass).getKey(id);
+            RedisNearCache cache = nearCache;
+            long epoch = 0;
+            if (cache!=null)
+            {
+                Object cached = cache.get(key);
+                if (entityClass.isInstance(cached))
+                {
+                    return entityClass.cast(cached);
+                }
+                epoch = cache.getEpoch();
+            }
+            if (RedisStorageMode.JSON.equals(storageMode))
+            {
+                Object value = read(redisClient -> redisClient.sendCommand(key, JsonCommand.GET, key, RedisJsonDocument.ENTITY_PATH));
+                String json = value!=null?RedisJsonDocument.unwrap(SafeEncoder.encode((byte[]) value)):null;
+                result = getEntityMapper().read(json, entityClass);
+            }
+            else
+            {
+                byte[] value = read(redisClient -> redisClient.get(SafeEncoder.encode(key)));
+                result = RedisValueCodecs.decode(getCompressor().decompress(value), entityClass, valueCodec);
+            }
+            if (cache!=null && !isReplicaRead())
+            {
+                cache.put(key, result, epoch);
+            }
+        }
+        catch (Exception e)
+        {
+            ExceptionUtil.traiterException(e, "Impossible de charger la classe", true);
+        }
+        if (result == null)
+        {
+            LOG.error("No entity find with id "+id);
+            throw new BusinessException("No entity find with id "+id);
+        }
+        return result;
+    }
+
+
+
+    /**
+     * Cette methode charge des entites par leur oid. Les cles sont
+     * calculees sans instancier les entites et lues par MGET de
+     * bulkChunkSize cles. Le cache local est consulte s'il est actif.
+     * 
+     * @param entityClass
+     * @param ids
+     * 
+     * @return les entites par oid dans l'ordre fourni, null pour un oid absent.
+     */
+    public <T extends RedisSearchDao> Map<String, T> findByIds(Class<T> entityClass, Collection<String> ids)
+    {
+        Map<String, T> result = new LinkedHashMap<>();
+        if (ids==null || ids.isEmpty())
+        {
+            return result;
+        }
+        RedisKeyTemplate template = RedisKeyTemplate.of(entityClass);
+        RedisNearCache cache = nearCache;
+        long epoch = cache!=null?cache.getEpoch():0;
+        List<String> missingIds = new ArrayList<>();
+        for (String id : ids)
+        {
+            if (id==null || result.containsKey(id))
+            {
+                continue;
+            }
+            Object cached = cache!=null?cache.get(template.getKey(id)):null;
+            if (entityClass.isInstance(cached))
+            {
+                result.put(id, entityClass.cast(cached));
+            }
+            else
+            {
+                result.put(id, null);
+                missingIds.add(id);
+            }
+        }
+        
+        for (int from=0; from<missingIds.size(); from+=bulkChunkSize)
+        {
+            List<String> chunk = missingIds.subList(from, Math.min(from+bulkChunkSize, missingIds.size()));
+            List<String> keys = new ArrayList<>(chunk.size());
+            for (String id : chunk)
+            {
+                keys.add(template.getKey(id));
+            }
+            List<T> entities = loadByKeys(entityClass, keys);
+            for (int ix=0; ix<chunk.size(); ix++)
+            {
+                T entity = entities.get(ix);
+                result.put(chunk.get(ix), entity);
+                if (cache!=null && entity!=null && !isReplicaRead())
+                {
+                    cache.put(keys.get(ix), entity, epoch);
+                }
+            }
+        }
+        return result;
+    }
+
+
+
+    public <T extends RedisSearchDao> List<T> findByExpression(Class<T> entityClass, String expression) 
+        throws BusinessException
+    {
+        return findByExpression(entityClass, new EQuery(expression));
+    }
+
+
+
+    public <T extends RedisSearchDao> List<T> findByExpression(Class<T> entityClass, EQuery query) 
+        throws BusinessException
+    {
+        List<T> result = new ArrayList<>();
+        
+        EQuery search = toEntitySearch(query.copy());
+        SearchResult res = read(redisClient -> search(redisClient, entityClass, search));
+        if (res.getTotalResults()>0)
+        {
+            result = toEntities(entityClass, res);
+            if (res.getTotalResults()>res.getDocuments().size())
+            {
+                LOG.warn(query.toString()+" matches "+res.getTotalResults()+" entities, only "+res.getDocuments().size()+
+                        " are returned. Use streamByExpression to read them all.");
+            }
+        }
+        if (CollectionUtil.isEmpty(result))
+        {
+            LOG.warn(NO_ENTITY_FIND_WITH_EXPRESSION_MSG+query.toString());
+            throw new BusinessException(NO_ENTITY_FIND_WITH_EXPRESSION_MSG+query.toString());
+        }
+        return result;
+    }
+
+
+
+    /**
+     * Cette methode execute un gabarit de requete precompile avec les
+     * valeurs de ses parametres, dans leur ordre de declaration.
+     * 
+     * @param entityClass
+     * @param template
+     * @param values
+     * 
+     * @return les entites trouvees.
+     */
+    public <T extends RedisSearchDao> List<T> findByTemplate(Class<T> entityClass, RedisSearchQueryTemplate template, 
+            Object... values) throws BusinessException
+    {
+        return findByExpression(entityClass, template.toQuery(values));
+    }
+
+
+
+    /**
+     * Cette methode compte les entites qui correspondent a la requete par
+     * FT.SEARCH ... LIMIT 0 0: aucun document n'est transfere. La limite
+     * est appliquee a une copie, la requete fournie n'est pas modifiee.
+     * 
+     * @param entityClass
+     * @param query
+     * 
+     * @return le nombre d'entites, 0 si l'index n'existe pas encore.
+     */
+    public long count(Class<? extends RedisSearchDao> entityClass, EQuery query)
+    {
+        EQuery search = query.copy().limit(0, 0);
+        try
+        {
+            return read(redisClient -> search(redisClient, entityClass, search)).getTotalResults();
+        }
+        catch (JedisDataException jde)
+        {
+            if (RedisIndexRegistry.isUnknownIndexError(jde))
+            {
+                return 0;
+            }
+            throw jde;
+        }
+    }
+    public long count(Class<? extends RedisSearchDao> entityClass, String expression)
+    {
+        return count(entityClass, new EQuery(expression));
+    }
+
+
+
+    /**
+     * Cette methode verifie qu'au moins une entite correspond a la
+     * requete, sans transfert de document ni exception.
+     * 
+     * @param entityClass
+     * @param query
+     * 
+     * @return true si une entite correspond.
+     */
+    public boolean exists(Class<? extends RedisSearchDao> entityClass, EQuery query)
+    {
+        return count(entityClass, query)>0;
+    }
+    public boolean exists(Class<? extends RedisSearchDao> entityClass, String expression)
+    {
+        return exists(entityClass, new EQuery(expression));
+    }
+
+
+
+    /**
+     * Cette methode renvoie des champs d'index des entites qui
+     * correspondent a la requete, par FT.SEARCH ... RETURN. Les entites
+     * ne sont ni lues ni deserialisees.
+     * 
+     * @param entityClass
+     * @param query
+     * @param fields champs d'index renvoyes
+     * 
+     * @return les valeurs par champ de chaque entite, vide si aucune ne correspond.
+     */
+    public List<Map<String, String>> findProjected(Class<? extends RedisSearchDao> entityClass, EQuery query, 
+            String... fields)
+    {
+        EQuery search = query.copy().returnFields(fields);
+        SearchResult res = read(redisClient -> search(redisClient, entityClass, search));
+        List<Map<String, String>> result = new ArrayList<>(res.getDocuments().size());
+        for (Document doc : res.getDocuments())
+        {
+            if (doc!=null)
+            {
+                Map<String, String> row = new LinkedHashMap<>();
+                for (String field : fields)
+                {
+                    row.put(field, RedisSearchValueSanitizer.unescapeValue(decodeValue(doc.get(field))));
+                }
+                result.add(row);
+            }
+        }
+        if (res.getTotalResults()>result.size())
+        {
+            LOG.warn(query.toString()+" matches "+res.getTotalResults()+" entities, only "+result.size()+" are projected.");
+        }
+        return result;
+    }
+    /**
+     * Cette methode projette les entites qui correspondent a la requete
+     * sur une interface ou une classe dont les proprietes portent les
+     * noms des champs d'index.
+     * 
+     * @param entityClass
+     * @param query
+     * @param projectionType
+     * 
+     * @return les projections, vide si aucune entite ne correspond.
+     */
+    public <P> List<P> findProjected(Class<? extends RedisSearchDao> entityClass, EQuery query, Class<P> projectionType)
+    {
+        RedisProjection<P> projection = RedisProjection.of(projectionType);
+        List<Map<String, String>> rows = findProjected(entityClass, query, projection.getFields().toArray(new String[0]));
+        List<P> result = new ArrayList<>(rows.size());
+        for (Map<String, String> row : rows)
+        {
+            result.add(projection.map(row, getEntityMapper()));
+        }
+        return result;
+    }
+    
+
+
+    /**
+     * Cette methode parcourt toutes les entites qui correspondent a la
+     * requete, page par page, par un curseur serveur. La memoire utilisee
+     * ne depend pas du nombre de resultats. Le flux doit etre ferme pour
+     * liberer le curseur s'il n'est pas consomme entierement.
+     * La limite de la requete n'est pas appliquee.
+     * 
+     * Une requete qu'une agregation ne peut pas porter (filtres, tri,
+     * parametres, dialecte, voir {@link EQuery#isAggregable()}) est lue par
+     * pages FT.SEARCH successives sur une copie, afin de remonter les
+     * memes entites que {@link #findByExpression(Class, EQuery)}.
+     * 
+     * @param entityClass
+     * @param query
+     * 
+     * @return le flux des entites.
+     */
+    public <T extends RedisSearchDao> Stream<T> streamByExpression(Class<T> entityClass, EQuery query)
+    {
+        if (!query.isAggregable())
+        {
+            int pageSize = streamPageSize;
+            RedisSearchPageIterator<T> pages = new RedisSearchPageIterator<>(pageSize, 
+                    offset -> {
+                        EQuery search = toEntitySearch(query.copy().limit(offset, pageSize));
+                        return read(redisClient -> search(redisClient, entityClass, search));
+                    },
+                    res -> toEntities(entityClass, res));
+            return StreamSupport.stream(Spliterators.spliteratorUnknownSize(pages, Spliterator.ORDERED | Spliterator.NONNULL), false);
+        }
+        registerIndexForRead(entityClass);
+        AggregationBuilder aggregation = new AggregationBuilder(query.getQueryString());
+        if (RedisStorageMode.JSON.equals(storageMode))
+        {
+            aggregation.load(RedisJsonDocument.ENTITY_PATH, JSON_TYPE_PATH);
+        }
+        else if (inlineSearchPayload)
+        {
+            aggregation.load("@"+KEY_FIELD, "@"+TYPE_FIELD, "@"+PAYLOAD_FIELD);
+        }
+        else
+        {
+            aggregation.load("@"+KEY_FIELD, "@"+TYPE_FIELD);
+        }
+        RedisSearchCursorIterator<T> iterator = new RedisSearchCursorIterator<>(getRedisClient(), 
+                RedisIndexRegistry.getIndexName(entityClass, storageMode), aggregation, streamPageSize, STREAM_CURSOR_MAX_IDLE, 
+                page -> {
+                    List<Function<String, String>> rows = new ArrayList<>();
+                    for (Map<String, Object> row : page)
+                    {
+                        rows.add(field -> decodeValue(row.get(field)));
+                    }
+                    return toEntities(entityClass, rows);
+                });
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .onClose(iterator::close);
+    }
+    
+    
+    
+    /**
+     * Cette methode execute une agregation par FT.AGGREGATE. Seules les
+     * lignes agregees sont transferees, aucune entite n'est chargee.
+     * 
+     * @param entityClass
+     * @param aggregation
+     * 
+     * @return les lignes du resultat, vide si aucune entite ne correspond.
+     */
+    public List<RedisAggregateRow> aggregate(Class<? extends RedisSearchDao> entityClass, RedisAggregation aggregation)
+    {
+        AggregationResult res = read(redisClient -> aggregate(redisClient, entityClass, aggregation.toAggregationBuilder()));
+        List<RedisAggregateRow> result = new ArrayList<>(res.getResults().size());
+        Set<String> groupedFields = aggregation.getGroupedFields();
+        for (Map<String, Object> row : res.getResults())
+        {
+            result.add(new RedisAggregateRow(row, groupedFields));
+        }
+        return result;
+    }
+    
+    
+    
+    public int getStreamPageSize()
+    {
+        return streamPageSize;
+    }
+    public void setStreamPageSize(int streamPageSize)
+    {
+        this.streamPageSize = streamPageSize>0?streamPageSize:DEFAULT_STREAM_PAGE_SIZE;
+    }
+    
+    
+    
+    /**
+     * Cette methode renvoie un nouveau client redis, avec son propre
+     * pool, que l'appelant doit fermer. Il n'est pas disponible en mode
+     * cluster.
+     * 
+     * @return un client redis dedie.
+     * 
+     * @deprecated le client partage par les operations de cette instance
+     * est renvoye par {@link #getRedisClient()}.
+     */
+    @Deprecated
+    public JedisPooled getJedisPooled()
+    {
+        return getConnectionManager().createJedisPooled();
+    }
+    
+    
+    
+    /**
+     * Cette methode renvoie le client redis partage, mono instance ou
+     * cluster. Il ne doit pas etre ferme par l'appelant.
+     * 
+     * @return le client redis.
+     */
+    public UnifiedJedis getRedisClient()
+    {
+        return getConnectionManager().getRedisClient();
+    }
+    
+    
+    
+    public boolean isClusterMode()
+    {
+        return clusterNodes!=null && !clusterNodes.isEmpty();
+    }
+    
+    
+    
+    /**
+     * Cette methode renvoie l'etat courant du pool de connexions.
+     * 
+     * @return les statistiques du pool.
+     */
+    public RedisPoolStatistics getPoolStatistics()
+    {
+        return getConnectionManager().getStatistics();
+    }
+    
+    
+    
+    /**
+     * Cette methode ferme le pool de connexions du client.
+     */
+    @Override
+    public void close()
+    {
+        disableNearCache();
+        disableReplicaReads();
+        stopOrphanSweeper();
+        getConnectionManager().close();
+    }
+    
+    
+    
+    /**
+     * Cette methode active le cache local de findById sur toutes les cles.
+     * 
+     * @param maxSize nombre maximum d'entites conservees
+     */
+    public void enableNearCache(int maxSize)
+    {
+        enableNearCache(maxSize, "*");
+    }
+    /**
+     * Cette methode active le cache local de findById. Les entites lues
+     * sont conservees dans la limite de maxSize (LRU) et invalidees par
+     * les notifications keyspace du serveur sur les cles du pattern.
+     * Une connexion du pool est reservee a l'abonnement.
+     * 
+     * Le serveur doit publier les notifications Kg$hxe
+     * (notify-keyspace-events), le client ne les active pas: sans elles
+     * le cache reste vide et getNearCacheStatistics le signale non abonne.
+     * 
+     * Les entites renvoyees par le cache sont partagees entre les
+     * appelants et ne doivent pas etre modifiees sans passer par merge.
+     * 
+     * @param maxSize nombre maximum d'entites conservees
+     * @param keyPattern pattern des cles mises en cache
+     */
+    public synchronized void enableNearCache(int maxSize, String keyPattern)
+    {
+        disableNearCache();
+        nearCache = new RedisNearCache(getConnectionManager().getPrimaryNodes(), maxSize, keyPattern);
+    }
+    
+    
+    
+    /**
+     * Cette methode supprime, en un tour de SCAN, les hash d'index des
+     * classes fournies dont l'entite n'existe plus.
+     * 
+     * @param entityClasses
+     * 
+     * @return le nombre de hash supprimes.
+     */
+    @SafeVarargs
+    public final long sweepOrphans(Class<? extends RedisSearchDao>... entityClasses)
+    {
+        List<Class<? extends RedisSearchDao>> classes = new ArrayList<>(entityClasses.length);
+        for (Class<? extends RedisSearchDao> entityClass : entityClasses)
+        {
+            classes.add(entityClass);
+        }
+        return createOrphanSweeper(classes).sweepAll();
+    }
+    
+    
+    
+    /**
+     * Cette methode reecrit les hash d'index d'une classe a partir du corps
+     * des entites, sans modifier ni les corps ni les expirations. Elle
+     * migre les valeurs indexees vers le format courant de
+     * {@link RedisSearchValueSanitizer}. Un hash dont l'entite est
+     * modifiee pendant la reecriture est laisse a la charge du merge.
+     * En mode JSON, l'index est porte par le document: rien a reecrire.
+     * 
+     * @param entityClass
+     * 
+     * @return le nombre de hash reecrits.
+     */
+    public long rewriteIndexHashes(Class<? extends RedisSearchDao> entityClass)
+    {
+        long result = 0;
+        if (RedisStorageMode.JSON.equals(storageMode))
+        {
+            return result;
+        }
+        ScanParams params = new ScanParams().match(entityClass.getName()+":*").count(DEFAULT_SCAN_COUNT);
+        for (JedisPooled node : getConnectionManager().getPrimaryNodes())
+        {
+            String cursor = ScanParams.SCAN_POINTER_START;
+            do
+            {
+                ScanResult<String> page = node.scan(cursor, params, HASH_TYPE);
+                result += rewriteIndexPage(node, entityClass, page.getResult());
+                cursor = page.getCursor();
+            }
+            while (!ScanParams.SCAN_POINTER_START.equals(cursor));
+        }
+        return result;
+    }
+    
+    
+    
+    /**
+     * Cette methode lance la suppression des hash d'index orphelins en
+     * tache de fond, a raison d'une page SCAN par periode.
+     * 
+     * @param period delai entre deux pages en ms
+     * @param entityClasses
+     */
+    @SafeVarargs
+    public final synchronized void startOrphanSweeper(long period, Class<? extends RedisSearchDao>... entityClasses)
+    {
+        stopOrphanSweeper();
+        List<Class<? extends RedisSearchDao>> classes = new ArrayList<>(entityClasses.length);
+        for (Class<? extends RedisSearchDao> entityClass : entityClasses)
+        {
+            classes.add(entityClass);
+        }
+        orphanSweeper = createOrphanSweeper(classes);
+        orphanSweeper.start(period);
+    }
+    
+    
+    
+    public synchronized void stopOrphanSweeper()
+    {
+        if (orphanSweeper!=null)
+        {
+            orphanSweeper.close();
+            orphanSweeper = null;
+        }
+    }
+    
+    
+    
+    public synchronized void disableNearCache()
+    {
+        if (nearCache!=null)
+        {
+            nearCache.close();
+            nearCache = null;
+        }
+    }
+    
+    
+    
+    /**
+     * Cette methode envoie les lectures (findById, findByIds,
+     * findByExpression, get, mget) sur des replicas du primaire. Les
+     * ecritures restent sur le primaire. Les replicas etant alimentes en
+     * asynchrone, une relecture immediate apres une ecriture doit passer
+     * par {@link #readFromPrimary()}. Les replicas sont ouverts avec les
+     * identifiants et le TLS de l'uri du primaire.
+     * 
+     * @param replicas adresses des replicas
+     * @param selection strategie de choix du replica
+     */
+    public synchronized void enableReplicaReads(Set<HostAndPort> replicas, RedisReplicaSelection selection)
+    {
+        if (isClusterMode())
+        {
+            throw new IllegalStateException("Replica reads are not available in cluster mode");
+        }
+        disableReplicaReads();
+        replicaRouter = new RedisReplicaRouter(poolConfig!=null?poolConfig:getConfigForPool(20), getConnectionManager().getClientConfig(), replicas, selection);
+    }
+    /**
+     * Cette methode envoie les lectures sur les replicas sains connus des
+     * sentinelles au moment de l'appel.
+     * 
+     * @param sentinels adresses des sentinelles
+     * @param masterName nom du primaire surveille
+     * @param selection strategie de choix du replica
+     */
+    public void enableReplicaReads(Set<HostAndPort> sentinels, String masterName, RedisReplicaSelection selection)
+    {
+        enableReplicaReads(new LinkedHashSet<>(RedisReplicaRouter.discoverReplicas(sentinels, masterName)), selection);
+    }
+    
+    
+    
+    public synchronized void disableReplicaReads()
+    {
+        if (replicaRouter!=null)
+        {
+            replicaRouter.close();
+            replicaRouter = null;
+        }
+    }
+    
+    
+    
+    /**
+     * Cette methode impose la lecture sur le primaire au thread courant
+     * jusqu'a la fermeture de la portee renvoyee.
+     * 
+     * @return la portee a fermer.
+     */
+    public RedisPrimaryReadScope readFromPrimary()
+    {
+        return new RedisPrimaryReadScope();
+    }
+    
+    
+    
+    /**
+     * Cette methode renvoie l'etat courant du cache local.
+     * 
+     * @return les statistiques du cache, vides s'il n'est pas actif.
+     */
+    public RedisNearCacheStatistics getNearCacheStatistics()
+    {
+        RedisNearCache cache = nearCache;
+        return cache!=null?cache.getStatistics():new RedisNearCacheStatistics();
+    }
+    
+    
+    
+    /**
+     * Cette methode enregistre les index des classes fournies au demarrage
+     * de l'application, en les creant si besoin.
+     * 
+     * @param entityClasses
+     */
+    @SafeVarargs
+    public final void registerIndexes(Class<? extends RedisSearchDao>... entityClasses)
+    {
+        for (Class<? extends RedisSearchDao> entityClass : entityClasses)
+        {
+            try
+            {
+                registerIndex(entityClass);
+            }
+            catch (ReflectiveOperationException e)
+            {
+                LOG.error("Unable to register index of "+entityClass.getName(), e);
+            }
+        }
+    }
+    
+    
+    
+    /**
+     * Cette methode oublie l'index connu d'une classe. Il sera verifie
+     * lors du prochain enregistrement.
+     * 
+     * @param entityClass
+     */
+    public void invalidateIndex(Class<? extends RedisSearchDao> entityClass)
+    {
+        getIndexRegistry().invalidate(entityClass, storageMode);
+    }
+    
+    
+    
+    /**
+     * Cette methode verifie l'index d'une classe s'il n'est pas encore
+     * connu, sur le primaire, a partir d'une instance d'exemple.
+     */
+    private void registerIndex(Class<?> entityClass) throws ReflectiveOperationException
+    {
+        RedisIndexRegistry registry = getIndexRegistry();
+        if (!registry.isKnown(entityClass, storageMode) && RedisSearchDao.class.isAssignableFrom(entityClass))
+        {
+            RedisSearchDao sample = (RedisSearchDao) entityClass.getDeclaredConstructor().newInstance();
+            sample.setOid(SAMPLE_OID);
+            registry.ensureIndex(getRedisClient(), sample, storageMode);
+        }
+    }
+    
+    
+    
+    /**
+     * Cette methode verifie l'index d'une classe avant sa premiere lecture,
+     * afin qu'une migration de schema ou de format demarre sans attendre
+     * une ecriture. Une classe sans constructeur par defaut n'est verifiee
+     * qu'a l'ecriture.
+     */
+    private void registerIndexForRead(Class<?> entityClass)
+    {
+        try
+        {
+            registerIndex(entityClass);
+        }
+        catch (ReflectiveOperationException e)
+        {
+            LOG.debug("Index of "+entityClass.getName()+" checked on write only: "+e.getMessage());
+        }
+    }
+    
+    
+    
+    private SearchResult search(UnifiedJedis redisClient, Class<?> entityClass, EQuery query)
+    {
+        registerIndexForRead(entityClass);
+        try
+        {
+            return redisClient.ftSearch(RedisIndexRegistry.getIndexName(entityClass, storageMode), query);
+        }
+        catch (JedisDataException jde)
+        {
+            if (RedisIndexRegistry.isUnknownIndexError(jde))
+            {
+                getIndexRegistry().invalidate(entityClass, storageMode);
+            }
+            throw jde;
+        }
+    }
+    
+    
+    
+    private AggregationResult aggregate(UnifiedJedis redisClient, Class<?> entityClass, AggregationBuilder aggregation)
+    {
+        registerIndexForRead(entityClass);
+        try
+        {
+            return redisClient.ftAggregate(RedisIndexRegistry.getIndexName(entityClass, storageMode), aggregation);
+        }
+        catch (JedisDataException jde)
+        {
+            if (RedisIndexRegistry.isUnknownIndexError(jde))
+            {
+                getIndexRegistry().invalidate(entityClass, storageMode);
+            }
+            throw jde;
+        }
+    }
+    
+    
+    
+    /**
+     * Cette methode demande a la recherche les champs necessaires a la
+     * lecture des entites selon le mode de stockage.
+     */
+    private EQuery toEntitySearch(EQuery search)
+    {
+        if (RedisStorageMode.JSON.equals(storageMode))
+        {
+            search.returnFields(RedisJsonDocument.ENTITY_PATH, JSON_TYPE_PATH);
+        }
+        else if (inlineSearchPayload)
+        {
+            search.returnFields(KEY_FIELD, TYPE_FIELD, PAYLOAD_FIELD);
+        }
+        return search;
+    }
+    
+    
+    
+    private <T extends RedisSearchDao> List<T> toEntities(Class<T> entityClass, SearchResult res)
+    {
+        List<Function<String, String>> rows = new ArrayList<>(res.getDocuments().size());
+        for (Document doc : res.getDocuments())
+        {
+            if (doc!=null)
+            {
+                rows.add(field -> (String) doc.get(field));
+            }
+        }
+        return toEntities(entityClass, rows);
+    }
+    
+    
+    
+    /**
+     * Cette methode convertit les lignes d'un resultat de recherche en
+     * entites. Chaque ligne est lue par nom de champ.
+     */
+    private <T extends RedisSearchDao> List<T> toEntities(Class<T> entityClass, List<Function<String, String>> rows)
+    {
+        List<T> result = new ArrayList<>();
+        List<String> keys = new ArrayList<>();
+        for (Function<String, String> row : rows) 
+        {
+            if (RedisStorageMode.JSON.equals(storageMode))
+            {
+                String type = row.apply(JSON_TYPE_PATH);
+                String entity = RedisJsonDocument.unwrap(row.apply(RedisJsonDocument.ENTITY_PATH));
+                if (StringUtil.isNotEmpty(entity) && (type==null || type.replace("\"", "").equals(entityClass.getName())))
+                {
+                    result.add(getEntityMapper().read(entity, entityClass));
+                }
+            }
+            else if (StringUtil.isNotEmpty(row.apply(KEY_FIELD)) && 
+                entityClass.getName().equals(row.apply(TYPE_FIELD)))
+            {
+                String payload = inlineSearchPayload?row.apply(PAYLOAD_FIELD):null;
+                if (StringUtil.isNotEmpty(payload))
+                {
+                    result.add(getEntityMapper().read(payload, entityClass));
+                }
+                else
+                {
+                    keys.add(row.apply(KEY_FIELD));
+                }
+            }
+        }
+        if (CollectionUtil.isNotEmpty(keys))
+        {
+            result.addAll(getTypedFromKeys(keys));
+        }
+        return result;
+    }
+    
+    
+    
+    private void invalidateNearCache(String key)
+    {
+        RedisNearCache cache = nearCache;
+        if (cache!=null)
+        {
+            cache.invalidate(key);
+        }
+    }
+    
+    
+    
+    private synchronized RedisScriptRegistry getScriptRegistry()
+    {
+        if (scriptRegistry==null)
+        {
+            scriptRegistry = new RedisScriptRegistry();
+        }
+        return scriptRegistry;
+    }
+    
+    
+    
+    private synchronized RedisValueCompressor getCompressor()
+    {
+        if (compressor==null)
+        {
+            compressor = new RedisValueCompressor();
+        }
+        return compressor;
+    }
+    
+    
+    
+    private synchronized RedisEntityMapper getEntityMapper()
+    {
+        if (entityMapper==null)
+        {
+            entityMapper = new RedisEntityMapper();
+        }
+        return entityMapper;
+    }
+    
+    
+    
+    private synchronized RedisIndexRegistry getIndexRegistry()
+    {
+        if (indexRegistry==null)
+        {
+            indexRegistry = new RedisIndexRegistry(this::rewriteIndexHashes);
+        }
+        return indexRegistry;
+    }
+    
+    
+    
+    private synchronized RedisConnectionManager getConnectionManager()
+    {
+        if (connectionManager==null)
+        {
+            if (poolConfig==null)
+            {
+                poolConfig = getConfigForPool(20);
+            }
+            if (clusterNodes!=null && !clusterNodes.isEmpty())
+            {
+                connectionManager = new RedisConnectionManager(poolConfig, clusterNodes, 
+                        clusterClientConfig!=null?clusterClientConfig:DefaultJedisClientConfig.builder().build());
+            }
+            else
+            {
+                connectionManager = new RedisConnectionManager(poolConfig, host, port, redisUri);
+            }
+        }
+        return connectionManager;
+    }
+    
+    
+    
+    private boolean isGlobPattern(String pattern)
+    {
+        return pattern.indexOf('*')>=0 || pattern.indexOf('?')>=0 || pattern.indexOf('[')>=0 || pattern.indexOf('\\')>=0;
+    }
+    
+    
+    
+    private RedisScript getMergeScript()
+    {
+        return RedisStorageMode.JSON.equals(storageMode)?RedisScript.MERGE_JSON:RedisScript.MERGE_HASH;
+    }
+    
+    
+    
+    private List<byte[]> getMergeKeys(RedisSearchDao object)
+    {
+        List<byte[]> result = new ArrayList<>(2);
+        result.add(SafeEncoder.encode(object.getKey()));
+        if (!RedisStorageMode.JSON.equals(storageMode))
+        {
+            result.add(SafeEncoder.encode(getIndexKey(object)));
+        }
+        return result;
+    }
+    
+    
+    
+    /**
+     * Cette methode prepare les arguments du script d'ecriture: le corps de
+     * l'entite, son expiration et en mode hash les champs de l'index.
+     */
+    private List<byte[]> getMergeArgs(RedisSearchDao object)
+    {
+        List<byte[]> result = new ArrayList<>();
+        if (RedisStorageMode.JSON.equals(storageMode))
+        {
+            result.add(SafeEncoder.encode(getJsonDocument(object, getEntityMapper().write(object))));
+            result.add(SafeEncoder.encode(Long.toString(Math.max(0, object.getTTL()))));
+        }
+        else
+        {
+            result.add(encodeEntity(object));
+            result.add(SafeEncoder.encode(Long.toString(Math.max(0, object.getTTL()))));
+            for (Entry<String, String> field : getIndexHash(object).entrySet())
+            {
+                if (field.getValue()!=null)
+                {
+                    result.add(SafeEncoder.encode(field.getKey()));
+                    result.add(SafeEncoder.encode(field.getValue()));
+                }
+            }
+        }
+        return result;
+    }
+    
+    
+    
+    private <T extends RedisSearchDao> void mergeChunk(UnifiedJedis redisClient, List<T> chunk, Map<T, RedisMergeOutcome<T>> outcomes)
+    {
+        RedisScriptRegistry scripts = getScriptRegistry();
+        RedisScript script = getMergeScript();
+        List<T> pending = chunk;
+        for (int attempt=0; attempt<2 && !pending.isEmpty(); attempt++)
+        {
+            Map<T, Response<Object>> responses = new LinkedHashMap<>();
+            try (Pipeline pipeline = getConnectionManager().pipelined(pending.get(0).getKey()))
+            {
+                scripts.ensureLoaded(redisClient, pending.get(0).getKey(), script);
+                for (T object : pending)
+                {
+                    try
+                    {
+                        responses.put(object, scripts.evalsha(pipeline, script, getMergeKeys(object), getMergeArgs(object)));
+                        invalidateNearCache(object.getKey());
+                    }
+                    catch (Exception e)
+                    {
+                        outcomes.put(object, RedisMergeOutcome.failure(object, e.getMessage()));
+                    }
+                }
+                pipeline.sync();
+            }
+            catch (Exception e)
+            {
+                LOG.fatal(e,e);
+                for (T object : responses.keySet())
+                {
+                    outcomes.put(object, RedisMergeOutcome.failure(object, e.getMessage()));
+                }
+                return;
+            }
+            
+            //les scripts ont pu etre purges du serveur: rejouer une fois apres rechargement
+            List<T> retry = new ArrayList<>();
+            for (Entry<T, Response<Object>> entry : responses.entrySet())
+            {
+                try
+                {
+                    entry.getValue().get();
+                    outcomes.put(entry.getKey(), RedisMergeOutcome.success(entry.getKey()));
+                }
+                catch (JedisDataException jde)
+                {
+                    if (attempt==0 && RedisScriptRegistry.isNoScriptError(jde))
+                    {
+                        retry.add(entry.getKey());
+                    }
+                    else
+                    {
+                        outcomes.put(entry.getKey(), RedisMergeOutcome.failure(entry.getKey(), jde.getMessage()));
+                    }
+                }
+            }
+            if (!retry.isEmpty())
+            {
+                scripts.invalidate();
+            }
+            pending = retry;
+        }
+    }
+    
+    
+    
+    private long removeChunk(Class<?> entityClass, RedisKeyTemplate template, List<String> ids)
+    {
+        long result = 0;
+        UnifiedJedis redisClient = getRedisClient();
+        RedisScriptRegistry scripts = getScriptRegistry();
+        String sampleKey = template.getKey(ids.get(0));
+        Map<List<byte[]>, Response<Object>> responses = new LinkedHashMap<>();
+        try (Pipeline pipeline = getConnectionManager().pipelined(sampleKey))
+        {
+            scripts.ensureLoaded(redisClient, sampleKey, RedisScript.REMOVE);
+            for (String id : ids)
+            {
+                String key = template.getKey(id);
+                List<byte[]> keys = getRemoveKeys(key, entityClass, id);
+                responses.put(keys, scripts.evalsha(pipeline, RedisScript.REMOVE, keys, Collections.emptyList()));
+                invalidateNearCache(key);
+            }
+            pipeline.sync();
+        }
+        for (Entry<List<byte[]>, Response<Object>> entry : responses.entrySet())
+        {
+            Object removed;
+            try
+            {
+                removed = entry.getValue().get();
+            }
+            catch (JedisDataException jde)
+            {
+                if (!RedisScriptRegistry.isNoScriptError(jde))
+                {
+                    throw jde;
+                }
+                removed = scripts.eval(redisClient, RedisScript.REMOVE, entry.getKey(), Collections.emptyList());
+            }
+            if (Long.valueOf(1).equals(removed))
+            {
+                result++;
+            }
+        }
+        return result;
+    }
+    
+    
+    
+    private void prepareForMerge(RedisSearchDao object)
+    {
+        if (object instanceof OptimisticDao)
+        {
+            ((OptimisticDao)object).setVersion(Calendar.getInstance());
+        }
+        if (StringUtil.isEmpty(object.getOid()))
+        {
+            object.setOid(GuidGenerator.getGUID(object));
+        }
+    }
+    
+    
+    
+    private String getIndexKey(RedisSearchDao object)
+    {
+        return getIndexKey(object.getClass(), object.getKey(), object.getOid());
+    }
+    private String getIndexKey(Class<?> entityClass, String key, String oid)
+    {
+        return RedisKeyTemplate.getIndexKey(entityClass, key, oid, isClusterMode());
+    }
+    
+    
+    
+    private <T extends RedisSearchDao> List<T> loadByKeys(Class<T> entityClass, List<String> keys)
+    {
+        List<T> result = new ArrayList<>(keys.size());
+        if (RedisStorageMode.JSON.equals(storageMode))
+        {
+            for (String json : jsonMgetPerSlot(keys))
+            {
+                result.add(getEntityMapper().read(json, entityClass));
+            }
+        }
+        else
+        {
+            RedisValueCompressor compressor = getCompressor();
+            for (byte[] value : mgetPerSlot(keys))
+            {
+                result.add(RedisValueCodecs.decode(compressor.decompress(value), entityClass, valueCodec));
+            }
+        }
+        return result;
+    }
+    
+    
+    
+    /**
+     * Cette methode execute une lecture sur un replica si le routage des
+     * lectures est actif et qu'aucune lecture sur le primaire n'est
+     * imposee au thread courant.
+     */
+    private <R> R read(Function<UnifiedJedis, R> operation)
+    {
+        RedisReplicaRouter router = replicaRouter;
+        if (router==null || RedisPrimaryReadScope.isActive())
+        {
+            return operation.apply(getRedisClient());
+        }
+        return router.read(operation, getRedisClient());
+    }
+    
+    
+    
+    /**
+     * Le cache local n'est pas alimente par les replicas: une lecture en
+     * retard sur le primaire y resterait jusqu'a la prochaine ecriture.
+     */
+    private boolean isReplicaRead()
+    {
+        return replicaRouter!=null && !RedisPrimaryReadScope.isActive();
+    }
+    
+    
+    
+    private List<byte[]> getRemoveKeys(String key, Class<?> entityClass, String oid)
+    {
+        return Arrays.asList(SafeEncoder.encode(key), SafeEncoder.encode(getIndexKey(entityClass, key, oid)));
+    }
+    
+    
+    
+    /**
+     * Cette methode lit des cles par MGET. En mode cluster, les cles sont
+     * regroupees par slot et les groupes sont lus en parallele.
+     * 
+     * @return les valeurs dans l'ordre des cles.
+     */
+    private List<byte[]> mgetPerSlot(List<String> keys)
+    {
+        return readPerSlot(keys, (redisClient, slotKeys) -> redisClient.mget(toBinaryKeys(slotKeys)));
+    }
+    
+    
+    
+    /**
+     * Cette methode lit le chemin de l'entite des documents JSON par
+     * JSON.MGET, groupe par slot.
+     * 
+     * @param keys
+     * 
+     * @return les documents dans l'ordre des cles.
+     */
+    private List<String> jsonMgetPerSlot(List<String> keys)
+    {
+        List<Object> values = readPerSlot(keys, (redisClient, slotKeys) -> {
+            String[] args = slotKeys.toArray(new String[slotKeys.size()+1]);
+            args[slotKeys.size()] = RedisJsonDocument.ENTITY_PATH;
+            return (List<?>) redisClient.sendCommand(slotKeys.get(0), JsonCommand.MGET, args);
+        });
+        List<String> result = new ArrayList<>(values.size());
+        for (Object value : values)
+        {
+            result.add(value!=null?RedisJsonDocument.unwrap(decodeValue(value)):null);
+        }
+        return result;
+    }
+    
+    
+    
+    /**
+     * Cette methode lit des cles par MGET. En mode JSON, les cles absentes
+     * du MGET sont relues par JSON.MGET sur le chemin de l'entite.
+     * 
+     * @return les valeurs dans l'ordre des cles.
+     */
+    private List<String> readValues(List<String> keys)
+    {
+        List<String> result = new ArrayList<>(keys.size());
+        List<Integer> missing = new ArrayList<>();
+        List<byte[]> values = mgetPerSlot(keys);
+        for (int ix=0; ix<keys.size(); ix++)
+        {
+            String value = readText(values.get(ix));
+            result.add(value);
+            if (value==null)
+            {
+                missing.add(ix);
+            }
+        }
+        if (RedisStorageMode.JSON.equals(storageMode) && !missing.isEmpty())
+        {
+            List<String> missingKeys = new ArrayList<>(missing.size());
+            for (Integer position : missing)
+            {
+                missingKeys.add(keys.get(position));
+            }
+            List<String> documents = jsonMgetPerSlot(missingKeys);
+            for (int ix=0; ix<missing.size(); ix++)
+            {
+                result.set(missing.get(ix), documents.get(ix));
+            }
+        }
+        return result;
+    }
+    
+    
+    
+    private <V> List<V> readPerSlot(List<String> keys, BiFunction<UnifiedJedis, List<String>, List<? extends V>> reader)
+    {
+        List<V> result = new ArrayList<>(Collections.nCopies(keys.size(), null));
+        List<Integer> positions = new ArrayList<>(keys.size());
+        for (int ix=0; ix<keys.size(); ix++)
+        {
+            positions.add(ix);
+        }
+        getConnectionManager().forEachSlot(positions, keys::get, group -> {
+            List<String> slotKeys = new ArrayList<>(group.size());
+            for (Integer position : group)
+            {
+                slotKeys.add(keys.get(position));
+            }
+            List<? extends V> values = read(redisClient -> reader.apply(redisClient, slotKeys));
+            for (int ix=0; ix<group.size(); ix++)
+            {
+                result.set(group.get(ix), values.get(ix));
+            }
+        });
+        return result;
+    }
+    
+    
+    
+    private long rewriteIndexPage(JedisPooled node, Class<? extends RedisSearchDao> entityClass, List<String> indexKeys)
+    {
+        long result = 0;
+        if (indexKeys.isEmpty())
+        {
+            return result;
+        }
+        List<Response<String>> entityKeys = new ArrayList<>(indexKeys.size());
+        try (Pipeline pipeline = RedisPooledPipeline.of(node.getPool()))
+        {
+            for (String indexKey : indexKeys)
+            {
+                entityKeys.add(pipeline.hget(indexKey, KEY_FIELD));
+            }
+            pipeline.sync();
+        }
+        List<Response<byte[]>> bodies = new ArrayList<>(indexKeys.size());
+        try (Pipeline pipeline = RedisPooledPipeline.of(node.getPool()))
+        {
+            for (Response<String> entityKey : entityKeys)
+            {
+                bodies.add(entityKey.get()!=null?pipeline.get(SafeEncoder.encode(entityKey.get())):null);
+            }
+            pipeline.sync();
+        }
+        RedisScriptRegistry scripts = getScriptRegistry();
+        RedisValueCompressor compressor = getCompressor();
+        List<Response<Object>> rewrites = new ArrayList<>();
+        scripts.ensureLoaded(getRedisClient(), indexKeys.get(0), RedisScript.REWRITE_INDEX);
+        try (Pipeline pipeline = RedisPooledPipeline.of(node.getPool()))
+        {
+            for (int ix=0; ix<indexKeys.size(); ix++)
+            {
+                byte[] body = bodies.get(ix)!=null?bodies.get(ix).get():null;
+                if (body!=null)
+                {
+                    RedisSearchDao object = RedisValueCodecs.decode(compressor.decompress(body), entityClass, valueCodec);
+                    List<byte[]> keys = Arrays.asList(SafeEncoder.encode(entityKeys.get(ix).get()), SafeEncoder.encode(indexKeys.get(ix)));
+                    List<byte[]> args = new ArrayList<>();
+                    args.add(SafeEncoder.encode(RedisScript.sha1(body)));
+                    for (Entry<String, String> field : getIndexHash(object).entrySet())
+                    {
+                        if (field.getValue()!=null)
+                        {
+                            args.add(SafeEncoder.encode(field.getKey()));
+                            args.add(SafeEncoder.encode(field.getValue()));
+                        }
+                    }
+                    rewrites.add(scripts.evalsha(pipeline, RedisScript.REWRITE_INDEX, keys, args));
+                }
+            }
+            pipeline.sync();
+        }
+        for (Response<Object> rewrite : rewrites)
+        {
+            if (Long.valueOf(1).equals(rewrite.get()))
+            {
+                result++;
+            }
+        }
+        return result;
+    }
+    
+    
+    
+    private RedisOrphanSweeper createOrphanSweeper(List<Class<? extends RedisSearchDao>> entityClasses)
+    {
+        List<String> prefixes = new ArrayList<>();
+        for (Class<?> entityClass : entityClasses)
+        {
+            prefixes.add(entityClass.getName()+":");
+        }
+        return new RedisOrphanSweeper(getConnectionManager(), getScriptRegistry(), prefixes, DEFAULT_SCAN_COUNT);
+    }
+    
+    
+    
+    private byte[] encodeEntity(RedisSearchDao object)
+    {
+        return getCompressor().compress(RedisValueCodecs.encode(valueCodec, object), compressionThreshold);
+    }
+    
+    
+    
+    private byte[] writeText(String value)
+    {
+        return getCompressor().compress(SafeEncoder.encode(value), compressionThreshold);
+    }
+    
+    
+    
+    private String readText(byte[] value)
+    {
+        return value!=null?SafeEncoder.encode(getCompressor().decompress(value)):null;
+    }
+    
+    
+    
+    private static byte[][] toBinaryKeys(List<String> keys)
+    {
+        byte[][] result = new byte[keys.size()][];
+        for (int ix=0; ix<result.length; ix++)
+        {
+            result[ix] = SafeEncoder.encode(keys.get(ix));
+        }
+        return result;
+    }
+    
+    
+    
+    private String decodeValue(Object value)
+    {
+        if (value instanceof byte[])
+        {
+            return SafeEncoder.encode((byte[]) value);
+        }
+        return value!=null?value.toString():null;
+    }
+    
+    
+    
+    private String getJsonDocument(RedisSearchDao object, String json)
+    {
+        Map<String, String> metaFields = new LinkedHashMap<>();
+        metaFields.put("oid", object.getOid());
+        metaFields.put(KEY_FIELD, object.getKey());
+        metaFields.put(TYPE_FIELD, object.getClass().getName());
+        return RedisJsonDocument.toDocument(json, convertObjectMapToJsonMap(object.getIndexFieldValues()), 
+                metaFields, object.getIndexSchema());
+    }
+    
+    
+    
+    /**
+     * Cette methode construit le hash d'index d'une entite. Un champ du
+     * schema sans valeur est ecrit vide afin que le script de merge le
+     * retire du hash: l'ancienne valeur ne doit plus etre trouvee.
+     * 
+     * @param object
+     * 
+     * @return les champs du hash d'index.
+     */
+    private Map<String, String> getIndexHash(RedisSearchDao object)
+    {
+        Map<String, Object> indexField = new HashMap<>(object.getIndexFieldValues());
+        indexField.put("oid", object.getOid());
+        indexField.put(KEY_FIELD, object.getKey());
+        indexField.put(TYPE_FIELD, object.getClass().getName());
+        Map<String, String> result = convertObjectMapToJsonMap(indexField);
+        for (Schema.Field field : object.getIndexSchema().fields)
+        {
+            if (indexField.get(field.name)==null)
+            {
+                result.put(field.name, "");
+            }
+        }
+        if (object instanceof OptimisticDao && ((OptimisticDao) object).getVersion()!=null)
+        {
+            result.put(VERSION_FIELD, Long.toString(((OptimisticDao) object).getVersion().getTimeInMillis()));
+        }
+        if (inlineSearchPayload)
+        {
+            result.put(PAYLOAD_FIELD, getEntityMapper().write(object));
+        }
+        return result;
     }
     
     
@@ -645,7 +2471,9 @@ public class ExtendRedisClient implements Serializable
         {
             for (Entry<String, Object> entry : indexFieldValues.entrySet())
             {
-                jsonIndexField.put(entry.getKey(), JsonUtil.transformObjectToJson(entry.getValue(), false).replace("\"", ""));
+                Object value = entry.getValue();
+                jsonIndexField.put(entry.getKey(), value instanceof String?(String) value:
+                    JsonUtil.transformObjectToJson(value, false).replace("\"", ""));
             }
         }
         return jsonIndexField;
@@ -0,0 +1,526 @@
+/*******************************************************************************
+ *    
+ *                           FRAMEWORK Lixbox
+ *                          ==================
+ *      
+ * This file is part of lixbox-orm.
+ *
+ *    lixbox-orm is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    lixbox-orm is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *    along with lixbox-orm.  If not, see <https://www.gnu.org/licenses/>
+ *   
+ *   @AUTHOR Lixbox-team
+ *
+ ******************************************************************************/
+package fr.lixbox.orm.redis.client;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
+
+import fr.lixbox.common.util.StringUtil;
+import redis.clients.jedis.Connection;
+import redis.clients.jedis.ConnectionPool;
+import redis.clients.jedis.DefaultJedisClientConfig;
+import redis.clients.jedis.HostAndPort;
+import redis.clients.jedis.JedisClientConfig;
+import redis.clients.jedis.JedisCluster;
+import redis.clients.jedis.JedisPooled;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Protocol.Command;
+import redis.clients.jedis.UnifiedJedis;
+import redis.clients.jedis.util.JedisClusterCRC16;
+import redis.clients.jedis.util.JedisURIHelper;
+import redis.clients.jedis.util.Pool;
+import redis.clients.jedis.util.SafeEncoder;
+
+/**
+ * Cette classe gere le cycle de vie du pool de connexions redis
+ * d'un client. Le pool est cree une seule fois et partage par toutes
+ * les operations jusqu'a la fermeture du client.
+ *
+ * En mode cluster, le client est un {@link JedisCluster} qui maintient
+ * un pool par noeud. Les operations multi-cles sont alors decoupees par
+ * slot et les groupes sont executes en parallele.
+ *
+ * @author ludovic.terral
+ */
+public class RedisConnectionManager implements AutoCloseable
+{
+    // ----------- Attibuts -----------
+    private static final Log LOG = LogFactory.getLog(RedisConnectionManager.class);
+    private static final String SLOTS = "SLOTS";
+
+    private final GenericObjectPoolConfig<Connection> poolConfig;
+    private final String host;
+    private final int port;
+    private final String redisUri;
+    private final Set<HostAndPort> clusterNodes;
+    private final JedisClientConfig clusterClientConfig;
+    private JedisPooled jedisPooled;
+    private JedisCluster jedisCluster;
+    private final Map<String, JedisPooled> nodeClients = new LinkedHashMap<>();
+    private List<JedisPooled> primaryNodes;
+    private Set<String> primaryTopology;
+    private ExecutorService slotExecutor;
+    private boolean closed = false;
+
+
+
+    //----------- Methodes -----------
+    public RedisConnectionManager(GenericObjectPoolConfig<Connection> poolConfig, String host, int port, String redisUri)
+    {
+        this.poolConfig = poolConfig;
+        this.host = host;
+        this.port = port;
+        this.redisUri = redisUri;
+        this.clusterNodes = Collections.emptySet();
+        this.clusterClientConfig = null;
+    }
+    public RedisConnectionManager(GenericObjectPoolConfig<Connection> poolConfig, Set<HostAndPort> clusterNodes)
+    {
+        this(poolConfig, clusterNodes, DefaultJedisClientConfig.builder().build());
+    }
+    /**
+     * @param poolConfig configuration du pool de chaque noeud
+     * @param clusterNodes noeuds d'amorce du cluster
+     * @param clientConfig configuration de connexion des noeuds (utilisateur,
+     * mot de passe et TLS)
+     */
+    public RedisConnectionManager(GenericObjectPoolConfig<Connection> poolConfig, Set<HostAndPort> clusterNodes, 
+            JedisClientConfig clientConfig)
+    {
+        this.poolConfig = poolConfig;
+        this.host = "";
+        this.port = 0;
+        this.redisUri = "";
+        this.clusterNodes = new LinkedHashSet<>(clusterNodes);
+        this.clusterClientConfig = clientConfig;
+    }
+
+
+
+    public boolean isCluster()
+    {
+        return !clusterNodes.isEmpty();
+    }
+
+
+
+    /**
+     * Cette methode renvoie le client partage, mono instance ou cluster.
+     * Il ne doit pas etre ferme par l'appelant.
+     *
+     * @return le client redis.
+     */
+    public synchronized UnifiedJedis getRedisClient()
+    {
+        if (!isCluster())
+        {
+            return getJedisPooled();
+        }
+        checkOpen();
+        if (jedisCluster == null)
+        {
+            jedisCluster = new JedisCluster(clusterNodes, getClientConfig(), JedisCluster.DEFAULT_MAX_ATTEMPTS, poolConfig);
+        }
+        return jedisCluster;
+    }
+
+
+
+    /**
+     * Cette methode renvoie le client partage. Il ne doit pas etre
+     * ferme par l'appelant.
+     *
+     * @return le client associe au pool.
+     */
+    public synchronized JedisPooled getJedisPooled()
+    {
+        checkOpen();
+        if (isCluster())
+        {
+            throw new IllegalStateException("No single node client in cluster mode, use getRedisClient");
+        }
+        if (jedisPooled == null)
+        {
+            jedisPooled = createJedisPooled();
+        }
+        return jedisPooled;
+    }
+
+
+
+    /**
+     * Cette methode renvoie la configuration de connexion du primaire
+     * (utilisateur, mot de passe, base et TLS) portee par l'uri redis,
+     * ou celle des noeuds du cluster, pour ouvrir d'autres noeuds avec
+     * les memes droits.
+     *
+     * @return la configuration des clients.
+     */
+    public JedisClientConfig getClientConfig()
+    {
+        if (clusterClientConfig != null)
+        {
+            return clusterClientConfig;
+        }
+        DefaultJedisClientConfig.Builder builder = DefaultJedisClientConfig.builder();
+        if (StringUtil.isNotEmpty(redisUri))
+        {
+            try
+            {
+                URI uri = new URI(redisUri);
+                builder.user(JedisURIHelper.getUser(uri))
+                       .password(JedisURIHelper.getPassword(uri))
+                       .database(JedisURIHelper.getDBIndex(uri))
+                       .ssl(JedisURIHelper.isRedisSSLScheme(uri));
+            }
+            catch (URISyntaxException e)
+            {
+                throw new IllegalArgumentException("Invalid redis uri "+redisUri, e);
+            }
+        }
+        return builder.build();
+    }
+
+
+
+    /**
+     * Cette methode cree un client mono instance dedie, avec son propre
+     * pool. Il appartient a l'appelant qui doit le fermer.
+     *
+     * @return un nouveau client redis.
+     */
+    public JedisPooled createJedisPooled()
+    {
+        checkOpen();
+        if (isCluster())
+        {
+            throw new IllegalStateException("No single node client in cluster mode, use getRedisClient");
+        }
+        if (StringUtil.isNotEmpty(redisUri))
+        {
+            try
+            {
+                return new JedisPooled(poolConfig, new URI(redisUri));
+            }
+            catch (URISyntaxException e)
+            {
+                throw new IllegalArgumentException("Invalid redis uri "+redisUri, e);
+            }
+        }
+        return new JedisPooled(poolConfig, host, port);
+    }
+
+
+
+    /**
+     * Cette methode renvoie un client par noeud primaire, pour les
+     * commandes qui portent sur tout le keyspace (SCAN, DBSIZE...).
+     * Hors cluster, seul le client partage est renvoye. En cluster, la
+     * liste est mise en cache et n'est relue par CLUSTER SLOTS que si la
+     * topologie connue du client change. Les clients ne doivent pas etre
+     * fermes par l'appelant.
+     *
+     * @return les clients des noeuds primaires.
+     */
+    public synchronized List<JedisPooled> getPrimaryNodes()
+    {
+        if (!isCluster())
+        {
+            return Collections.singletonList(getJedisPooled());
+        }
+        JedisCluster cluster = (JedisCluster) getRedisClient();
+        Map<String, ConnectionPool> pools = cluster.getClusterNodes();
+        if (primaryNodes == null || !pools.keySet().equals(primaryTopology))
+        {
+            List<JedisPooled> result = new ArrayList<>();
+            for (String node : getPrimaryAddresses(pools))
+            {
+                result.add(nodeClients.computeIfAbsent(node, address -> new JedisPooled(HostAndPort.from(address), getClientConfig(), poolConfig)));
+            }
+            primaryTopology = new LinkedHashSet<>(pools.keySet());
+            primaryNodes = Collections.unmodifiableList(result);
+        }
+        return primaryNodes;
+    }
+
+
+
+    /**
+     * Cette methode ouvre un pipeline sur le noeud qui porte la cle
+     * fournie. Toutes les cles du pipeline doivent partager son slot en
+     * mode cluster. La fermeture du pipeline libere la connexion.
+     *
+     * @param sampleKey
+     *
+     * @return le pipeline.
+     */
+    public Pipeline pipelined(String sampleKey)
+    {
+        if (!isCluster())
+        {
+            return RedisPooledPipeline.of(getJedisPooled().getPool());
+        }
+        JedisCluster cluster = (JedisCluster) getRedisClient();
+        return new RedisPooledPipeline(cluster.getConnectionFromSlot(JedisClusterCRC16.getSlot(sampleKey)));
+    }
+
+
+
+    /**
+     * Cette methode execute une tache par slot des elements fournis. Hors
+     * cluster, la tache est executee une seule fois sur tous les elements.
+     * En mode cluster, les groupes sont traites en parallele et la
+     * premiere erreur rencontree est relancee.
+     *
+     * @param elements
+     * @param keyFunction cle redis d'un element
+     * @param task traitement d'un groupe d'elements d'un meme slot
+     */
+    public <E> void forEachSlot(Collection<E> elements, Function<E, String> keyFunction, Consumer<List<E>> task)
+    {
+        if (elements.isEmpty())
+        {
+            return;
+        }
+        if (!isCluster())
+        {
+            task.accept(new ArrayList<>(elements));
+            return;
+        }
+        Map<Integer, List<E>> groups = new LinkedHashMap<>();
+        for (E element : elements)
+        {
+            groups.computeIfAbsent(JedisClusterCRC16.getSlot(keyFunction.apply(element)), k -> new ArrayList<>()).add(element);
+        }
+        if (groups.size()==1)
+        {
+            task.accept(groups.values().iterator().next());
+            return;
+        }
+        List<Future<?>> futures = new ArrayList<>(groups.size());
+        ExecutorService executor = getSlotExecutor();
+        for (List<E> group : groups.values())
+        {
+            futures.add(executor.submit(() -> task.accept(group)));
+        }
+        RuntimeException failure = null;
+        for (Future<?> future : futures)
+        {
+            try
+            {
+                future.get();
+            }
+            catch (ExecutionException e)
+            {
+                if (failure==null)
+                {
+                    failure = e.getCause() instanceof RuntimeException?(RuntimeException) e.getCause():new IllegalStateException(e.getCause());
+                }
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e);
+            }
+        }
+        if (failure!=null)
+        {
+            throw failure;
+        }
+    }
+
+
+
+    /**
+     * Cette methode ouvre les connexions jusqu'au minIdle du pool.
+     * Un echec est journalise, le pool se remplira a la demande.
+     *
+     * @return true si le pool est prechauffe.
+     */
+    public boolean warmUp()
+    {
+        boolean result = false;
+        try
+        {
+            for (Pool<Connection> pool : getPools())
+            {
+                pool.preparePool();
+            }
+            result = true;
+        }
+        catch (Exception e)
+        {
+            LOG.warn("Unable to warm up the redis pool: "+e.getMessage());
+        }
+        return result;
+    }
+
+
+
+    /**
+     * Cette methode agrege les compteurs des pools de tous les noeuds.
+     * L'attente moyenne est celle de chaque noeud ponderee par son nombre
+     * d'emprunts, l'attente maximale la plus longue des noeuds.
+     *
+     * @return les statistiques des pools.
+     */
+    public synchronized RedisPoolStatistics getStatistics()
+    {
+        RedisPoolStatistics result = new RedisPoolStatistics();
+        if ((jedisPooled != null || jedisCluster != null) && !closed)
+        {
+            double totalBorrowWait = 0;
+            for (Pool<Connection> pool : getPools())
+            {
+                result.setActive(result.getActive()+pool.getNumActive());
+                result.setIdle(result.getIdle()+pool.getNumIdle());
+                result.setWaiters(result.getWaiters()+pool.getNumWaiters());
+                result.setBorrowed(result.getBorrowed()+pool.getBorrowedCount());
+                result.setCreated(result.getCreated()+pool.getCreatedCount());
+                result.setDestroyed(result.getDestroyed()+pool.getDestroyedCount());
+                result.setMaxBorrowWaitMillis(Math.max(result.getMaxBorrowWaitMillis(), pool.getMaxBorrowWaitTimeMillis()));
+                totalBorrowWait += (double) pool.getMeanBorrowWaitTimeMillis()*pool.getBorrowedCount();
+            }
+            if (result.getBorrowed()>0)
+            {
+                result.setMeanBorrowWaitMillis(Math.round(totalBorrowWait/result.getBorrowed()));
+            }
+        }
+        return result;
+    }
+
+
+
+    public synchronized boolean isClosed()
+    {
+        return closed;
+    }
+
+
+
+    @Override
+    public synchronized void close()
+    {
+        if (!closed)
+        {
+            closed = true;
+            if (slotExecutor != null)
+            {
+                slotExecutor.shutdownNow();
+                slotExecutor = null;
+            }
+            if (jedisPooled != null)
+            {
+                jedisPooled.close();
+                jedisPooled = null;
+            }
+            for (JedisPooled node : nodeClients.values())
+            {
+                node.close();
+            }
+            nodeClients.clear();
+            primaryNodes = null;
+            if (jedisCluster != null)
+            {
+                jedisCluster.close();
+                jedisCluster = null;
+            }
+        }
+    }
+
+
+
+    private void checkOpen()
+    {
+        if (closed)
+        {
+            throw new IllegalStateException("The redis connection manager is closed");
+        }
+    }
+
+
+
+    private List<Pool<Connection>> getPools()
+    {
+        if (!isCluster())
+        {
+            return Collections.singletonList(getJedisPooled().getPool());
+        }
+        return new ArrayList<>(((JedisCluster) getRedisClient()).getClusterNodes().values());
+    }
+
+
+
+    /**
+     * Cette methode lit les adresses des noeuds primaires par CLUSTER SLOTS
+     * aupres du premier noeud joignable.
+     */
+    private Set<String> getPrimaryAddresses(Map<String, ConnectionPool> pools)
+    {
+        RuntimeException failure = null;
+        for (ConnectionPool pool : pools.values())
+        {
+            try (Connection connection = pool.getResource())
+            {
+                connection.sendCommand(Command.CLUSTER, SLOTS);
+                Set<String> result = new LinkedHashSet<>();
+                for (Object range : connection.getObjectMultiBulkReply())
+                {
+                    List<?> primary = (List<?>) ((List<?>) range).get(2);
+                    result.add(SafeEncoder.encode((byte[]) primary.get(0))+":"+primary.get(1));
+                }
+                return result;
+            }
+            catch (RuntimeException e)
+            {
+                failure = e;
+            }
+        }
+        throw failure!=null?failure:new IllegalStateException("No reachable cluster node");
+    }
+
+
+
+    private synchronized ExecutorService getSlotExecutor()
+    {
+        checkOpen();
+        if (slotExecutor == null)
+        {
+            slotExecutor = Executors.newFixedThreadPool(Math.max(2, poolConfig.getMaxTotal()/2), runnable -> {
+                Thread thread = new Thread(runnable, "lixbox-redis-slot");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return slotExecutor;
+    }
+}
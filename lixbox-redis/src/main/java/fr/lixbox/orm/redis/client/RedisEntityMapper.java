@@ -0,0 +1,227 @@
+/*******************************************************************************
+ *    
+ *                           FRAMEWORK Lixbox
+ *                          ==================
+ *      
+ * This file is part of lixbox-orm.
+ *
+ *    lixbox-orm is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    lixbox-orm is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *    along with lixbox-orm.  If not, see <https://www.gnu.org/licenses/>
+ *   
+ *   @AUTHOR Lixbox-team
+ *
+ ******************************************************************************/
+package fr.lixbox.orm.redis.client;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import fr.lixbox.orm.redis.codec.RedisValueCodec;
+import fr.lixbox.orm.redis.codec.RedisValueCodecs;
+
+/**
+ * Cette classe assure la (de)serialisation json des entites du client.
+ * Le mapper est configure comme celui de lixbox-json afin que le json
+ * stocke reste celui de JsonUtil. Les lecteurs et ecrivains jackson sont
+ * prepares une seule fois par classe, et la classe d'une entite est
+ * resolue une seule fois par prefixe de cle.
+ *
+ * @author ludovic.terral
+ */
+public class RedisEntityMapper
+{
+    // ----------- Attibuts -----------
+    private static final Log LOG = LogFactory.getLog(RedisEntityMapper.class);
+    private static final char KEY_SEPARATOR = ':';
+
+    private final ObjectMapper mapper = createObjectMapper(new JsonFactory());
+    private final ConcurrentMap<Class<?>, ObjectReader> readers = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Class<?>, ObjectWriter> writers = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Class<?>> typesByPrefix = new ConcurrentHashMap<>();
+
+
+
+    //----------- Methodes -----------
+    /**
+     * Cette methode cree un mapper configure comme celui de lixbox-json:
+     * proprietes inconnues ignorees a la lecture, dates ecrites en
+     * millisecondes. Le format produit est compare a celui de JsonUtil
+     * par les tests du client.
+     *
+     * @param factory format des flux, json ou binaire
+     *
+     * @return le mapper.
+     */
+    public static ObjectMapper createObjectMapper(JsonFactory factory)
+    {
+        return new ObjectMapper(factory)
+                .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false)
+                .configure(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS, true);
+    }
+
+
+
+    public String write(Object object)
+    {
+        if (object==null)
+        {
+            return null;
+        }
+        try
+        {
+            return writers.computeIfAbsent(object.getClass(), mapper::writerFor).writeValueAsString(object);
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+
+
+    public <T> T read(String json, Class<T> type)
+    {
+        if (json==null || json.isEmpty() || type==null)
+        {
+            return null;
+        }
+        try
+        {
+            return readers.computeIfAbsent(type, mapper::readerFor).readValue(json);
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+
+
+    /**
+     * Cette methode convertit une valeur, par exemple une map de
+     * proprietes, dans le type demande.
+     *
+     * @param value
+     * @param type
+     *
+     * @return la valeur convertie.
+     */
+    public <T> T convert(Object value, Class<T> type)
+    {
+        return read(write(value), type);
+    }
+
+
+
+    /**
+     * Cette methode deserialise la valeur d'une cle dont le troisieme
+     * segment porte le nom de la classe (PREFIXE:TYPE:classe:oid).
+     *
+     * @param key
+     * @param json
+     *
+     * @return l'entite, null si la classe est introuvable.
+     */
+    public Object readFromKey(String key, String json)
+    {
+        return read(json, resolveType(key));
+    }
+
+
+
+    /**
+     * Cette methode decode la valeur binaire d'une cle, quel que soit
+     * son format.
+     *
+     * @param key
+     * @param data
+     * @param codec format d'ecriture du client, peut etre null
+     *
+     * @return l'entite, null si la classe est introuvable.
+     */
+    public Object decodeFromKey(String key, byte[] data, RedisValueCodec codec)
+    {
+        if (data==null || data.length==0)
+        {
+            return null;
+        }
+        return RedisValueCodecs.decode(data, resolveType(key), codec);
+    }
+
+
+
+    /**
+     * Cette methode renvoie la classe d'une entite a partir de sa cle.
+     *
+     * @param key
+     *
+     * @return la classe, null si elle est introuvable.
+     */
+    public Class<?> resolveType(String key)
+    {
+        int first = key.indexOf(KEY_SEPARATOR);
+        int second = first<0?-1:key.indexOf(KEY_SEPARATOR, first+1);
+        int third = second<0?-1:key.indexOf(KEY_SEPARATOR, second+1);
+        if (third<0)
+        {
+            LOG.error("Unable to resolve the type of the key "+key);
+            return null;
+        }
+        String prefix = key.substring(0, third);
+        Class<?> result = typesByPrefix.get(prefix);
+        if (result==null)
+        {
+            result = loadClass(prefix.substring(second+1));
+            if (result!=null)
+            {
+                typesByPrefix.putIfAbsent(prefix, result);
+            }
+        }
+        return result;
+    }
+
+
+
+    private Class<?> loadClass(String className)
+    {
+        try
+        {
+            return Class.forName(className);
+        }
+        catch (ClassNotFoundException e)
+        {
+            LOG.debug(e);
+        }
+        try
+        {
+            return Thread.currentThread().getContextClassLoader().loadClass(className);
+        }
+        catch (ClassNotFoundException e)
+        {
+            LOG.fatal(e);
+        }
+        return null;
+    }
+}
@@ -0,0 +1,630 @@
+/*******************************************************************************
+ *    
+ *                           FRAMEWORK Lixbox
+ *                          ==================
+ *      
+ * This file is part of lixbox-orm.
+ *
+ *    lixbox-orm is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    lixbox-orm is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *    along with lixbox-orm.  If not, see <https://www.gnu.org/licenses/>
+ *   
+ *   @AUTHOR Lixbox-team
+ *
+ ******************************************************************************/
+package fr.lixbox.orm.redis.client;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.ToLongFunction;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import fr.lixbox.orm.redis.model.RedisSearchDao;
+import fr.lixbox.orm.redis.model.RedisStorageMode;
+import fr.lixbox.orm.redis.query.RedisSearchValueSanitizer;
+import fr.lixbox.orm.redis.script.RedisScript;
+import redis.clients.jedis.UnifiedJedis;
+import redis.clients.jedis.exceptions.JedisDataException;
+import redis.clients.jedis.exceptions.JedisException;
+import redis.clients.jedis.search.IndexDefinition;
+import redis.clients.jedis.search.IndexOptions;
+import redis.clients.jedis.search.Schema;
+import redis.clients.jedis.search.Schema.Field;
+import redis.clients.jedis.util.SafeEncoder;
+
+/**
+ * Ce registre memorise les index RediSearch connus du client afin
+ * que le chemin d'ecriture n'interroge le serveur qu'a la premiere
+ * utilisation d'une classe.
+ *
+ * L'empreinte du schema de chaque index est conservee dans redis. A la
+ * premiere utilisation d'une classe dont le schema a change:
+ * <ul>
+ * <li>les champs ajoutes sont indexes par FT.ALTER;</li>
+ * <li>un champ supprime ou modifie entraine la construction d'une
+ * nouvelle version de l'index en tache de fond. L'ancienne version
+ * reste interrogeable sous le nom logique jusqu'a la fin de
+ * l'indexation, puis l'alias bascule sur la nouvelle.</li>
+ * </ul>
+ * L'empreinte porte sur le nom, le type et les options sortable et
+ * noindex des champs ainsi que sur la version du format des valeurs
+ * indexees ({@link RedisSearchValueSanitizer#FORMAT_VERSION}). Un
+ * changement de format entraine la reecriture des valeurs en tache de
+ * fond avant la mise a jour de l'empreinte.
+ *
+ * La bascule de l'alias et la suppression de l'ancienne version sont
+ * faites par le client, apres la mise a jour conditionnelle de
+ * l'empreinte par {@link RedisScript#UPDATE_INDEX_METADATA}: un seul
+ * client bascule l'alias. Un alias qui ne designe pas l'index memorise,
+ * apres un arret pendant la bascule, est corrige a la verification
+ * suivante.
+ *
+ * @author ludovic.terral
+ */
+public class RedisIndexRegistry
+{
+    // ----------- Attibuts -----------
+    private static final Log LOG = LogFactory.getLog(RedisIndexRegistry.class);
+    private static final String JSON_INDEX_SUFFIX = ":json";
+    private static final String METADATA_PREFIX = "LIXBOX:INDEX:";
+    private static final String VERSION_SEPARATOR = ":v";
+    private static final String FINGERPRINT_FIELD = "fingerprint";
+    private static final String SCHEMA_FIELD = "schema";
+    private static final String INDEX_FIELD = "index";
+    private static final String FORMAT_FIELD = "format";
+    private static final String FORMAT = Integer.toString(RedisSearchValueSanitizer.FORMAT_VERSION);
+    private static final String FIELD_SEPARATOR = "\n";
+    private static final long POLL_INTERVAL = 500;
+    private static final long PROGRESS_INTERVAL = 10000;
+
+    private final Set<String> knownIndexes = ConcurrentHashMap.newKeySet();
+    private final Set<String> migrations = ConcurrentHashMap.newKeySet();
+    private final ConcurrentMap<String, Object> locks = new ConcurrentHashMap<>();
+    private final ToLongFunction<Class<? extends RedisSearchDao>> valueRewriter;
+
+
+
+    //----------- Methodes -----------
+    public RedisIndexRegistry()
+    {
+        this(null);
+    }
+    /**
+     * @param valueRewriter reecriture des valeurs indexees d'une classe au
+     * format courant, renvoyant le nombre d'entites reecrites
+     */
+    public RedisIndexRegistry(ToLongFunction<Class<? extends RedisSearchDao>> valueRewriter)
+    {
+        this.valueRewriter = valueRewriter;
+    }
+
+
+
+    /**
+     * Cette methode verifie la presence de l'index de l'entite et le
+     * cree ou le fait evoluer si besoin. Une fois connu, l'index n'est
+     * plus verifie jusqu'a son invalidation.
+     *
+     * @param redisClient
+     * @param object
+     * @param storageMode
+     */
+    public void ensureIndex(UnifiedJedis redisClient, RedisSearchDao object, RedisStorageMode storageMode)
+    {
+        String indexName = getIndexName(object.getClass(), storageMode);
+        if (knownIndexes.contains(indexName))
+        {
+            return;
+        }
+        synchronized (locks.computeIfAbsent(indexName, k -> new Object()))
+        {
+            if (knownIndexes.contains(indexName))
+            {
+                return;
+            }
+            Schema schema = getSchema(object, storageMode);
+            List<String> fields = describe(schema);
+            String fingerprint = fingerprint(getPrefix(object, storageMode), fields);
+            Map<String, Object> info = getInfo(redisClient, indexName);
+            if (info==null)
+            {
+                createIndex(redisClient, indexName, object, storageMode, schema);
+                storeMetadata(redisClient, indexName, indexName, fingerprint, fields);
+            }
+            else
+            {
+                Map<String, String> metadata = redisClient.hgetAll(getMetadataKey(indexName));
+                if (!fingerprint.equals(metadata.get(FINGERPRINT_FIELD)))
+                {
+                    upgradeIndex(redisClient, indexName, object, storageMode, schema, fingerprint, metadata, info);
+                }
+                else
+                {
+                    repairAlias(redisClient, indexName, metadata, info);
+                }
+            }
+            knownIndexes.add(indexName);
+        }
+    }
+
+
+
+    public boolean isKnown(Class<?> entityClass, RedisStorageMode storageMode)
+    {
+        return knownIndexes.contains(getIndexName(entityClass, storageMode));
+    }
+
+
+
+    /**
+     * @param entityClass
+     * @param storageMode
+     *
+     * @return true si une nouvelle version de l'index est en construction.
+     */
+    public boolean isMigrating(Class<?> entityClass, RedisStorageMode storageMode)
+    {
+        return migrations.contains(getIndexName(entityClass, storageMode));
+    }
+
+
+
+    public void invalidate(Class<?> entityClass, RedisStorageMode storageMode)
+    {
+        invalidate(getIndexName(entityClass, storageMode));
+    }
+    public void invalidate(String indexName)
+    {
+        if (knownIndexes.remove(indexName))
+        {
+            LOG.info("Index "+indexName+" invalidated");
+        }
+    }
+
+
+
+    public void clear()
+    {
+        knownIndexes.clear();
+    }
+
+
+
+    /**
+     * Cette methode verifie si une erreur redis signale un index absent.
+     *
+     * @param jde
+     *
+     * @return true si l'index est inconnu du serveur.
+     */
+    public static boolean isUnknownIndexError(JedisDataException jde)
+    {
+        String message = jde.getMessage()!=null?jde.getMessage().toLowerCase():"";
+        return message.contains("unknown index") || message.contains("no such index");
+    }
+
+
+
+    public static String getIndexName(Class<?> entityClass, RedisStorageMode storageMode)
+    {
+        if (RedisStorageMode.JSON.equals(storageMode))
+        {
+            return entityClass.getName()+JSON_INDEX_SUFFIX;
+        }
+        return entityClass.getName();
+    }
+
+
+
+    /**
+     * @param indexName
+     *
+     * @return la cle du hash des metadonnees de l'index.
+     */
+    public static String getMetadataKey(String indexName)
+    {
+        return METADATA_PREFIX+indexName;
+    }
+
+
+
+    /**
+     * Cette methode fait evoluer un index existant dont l'empreinte a
+     * change: FT.ALTER si les champs connus sont conserves, construction
+     * d'une nouvelle version sinon.
+     */
+    private void upgradeIndex(UnifiedJedis redisClient, String indexName, RedisSearchDao object, 
+            RedisStorageMode storageMode, Schema schema, String fingerprint, Map<String, String> metadata, 
+            Map<String, Object> info)
+    {
+        List<String> fields = describe(schema);
+        String currentIndex = metadata.containsKey(INDEX_FIELD)?metadata.get(INDEX_FIELD):
+            toText(info.getOrDefault("index_name", indexName));
+        Set<String> knownFields = new HashSet<>();
+        boolean additive;
+        if (metadata.containsKey(SCHEMA_FIELD))
+        {
+            List<String> previous = Arrays.asList(metadata.get(SCHEMA_FIELD).split(FIELD_SEPARATOR));
+            additive = fields.containsAll(previous);
+            knownFields.addAll(previous);
+        }
+        else
+        {
+            additive = true;
+            Set<String> names = getAttributeNames(info);
+            for (int ix=0; ix<fields.size(); ix++)
+            {
+                if (names.contains(schema.fields.get(ix).name))
+                {
+                    knownFields.add(fields.get(ix));
+                }
+            }
+        }
+        if (additive)
+        {
+            Schema added = new Schema();
+            for (int ix=0; ix<fields.size(); ix++)
+            {
+                if (!knownFields.contains(fields.get(ix)))
+                {
+                    added.addField(schema.fields.get(ix));
+                }
+            }
+            if (!added.fields.isEmpty())
+            {
+                redisClient.ftAlter(currentIndex, added);
+                redisClient.hset(getMetadataKey(indexName), SCHEMA_FIELD, String.join(FIELD_SEPARATOR, fields));
+                LOG.info("Index "+indexName+" altered, "+added.fields.size()+" field(s) added");
+            }
+            if (FORMAT.equals(metadata.get(FORMAT_FIELD)))
+            {
+                storeMetadata(redisClient, indexName, currentIndex, fingerprint, fields);
+            }
+            else
+            {
+                startMigration(redisClient, indexName, currentIndex, currentIndex, object, metadata, fingerprint, fields);
+            }
+        }
+        else
+        {
+            String targetIndex = indexName+VERSION_SEPARATOR+fingerprint.substring(0, 8);
+            if (!targetIndex.equals(currentIndex) && !migrations.contains(indexName))
+            {
+                createIndex(redisClient, targetIndex, object, storageMode, schema);
+            }
+            startMigration(redisClient, indexName, currentIndex, targetIndex, object, metadata, fingerprint, fields);
+        }
+    }
+
+
+
+    /**
+     * Cette methode termine la migration d'un index en tache de fond:
+     * attente de l'indexation de la nouvelle version, reecriture des
+     * valeurs si leur format a change, puis mise a jour de l'empreinte et
+     * bascule de l'alias. Les ecritures sont indexees par les deux
+     * versions pendant la reconstruction, les lectures restent sur
+     * l'ancienne.
+     */
+    private void startMigration(UnifiedJedis redisClient, String indexName, String currentIndex, String targetIndex, 
+            RedisSearchDao object, Map<String, String> metadata, String fingerprint, List<String> fields)
+    {
+        if (!migrations.add(indexName))
+        {
+            return;
+        }
+        Class<? extends RedisSearchDao> entityClass = object.getClass();
+        String expectedFingerprint = metadata.getOrDefault(FINGERPRINT_FIELD, "");
+        boolean rewrite = !FORMAT.equals(metadata.get(FORMAT_FIELD));
+        LOG.info("Index "+indexName+" changed, migrating it to "+targetIndex+(rewrite?" with indexed values rewrite":""));
+        Thread thread = new Thread(() -> 
+        {
+            try
+            {
+                if (!targetIndex.equals(currentIndex))
+                {
+                    awaitIndexing(redisClient, targetIndex);
+                }
+                if (rewrite && valueRewriter!=null)
+                {
+                    long count = valueRewriter.applyAsLong(entityClass);
+                    LOG.info("Index "+indexName+" values rewritten: "+count);
+                }
+                Object updated = redisClient.eval(RedisScript.UPDATE_INDEX_METADATA.getSource(), 
+                        Collections.singletonList(getMetadataKey(indexName)), 
+                        Arrays.asList(expectedFingerprint, fingerprint, String.join(FIELD_SEPARATOR, fields), targetIndex, FORMAT));
+                if (Long.valueOf(1).equals(updated) && !targetIndex.equals(currentIndex))
+                {
+                    swapAlias(redisClient, indexName, targetIndex, currentIndex);
+                }
+                LOG.info("Index "+indexName+(Long.valueOf(1).equals(updated)?" now served by ":" already migrated to ")+targetIndex);
+            }
+            catch (JedisException je)
+            {
+                LOG.error("Index "+indexName+" migration to "+targetIndex+" failed", je);
+            }
+            catch (InterruptedException ie)
+            {
+                Thread.currentThread().interrupt();
+            }
+            finally
+            {
+                migrations.remove(indexName);
+            }
+        }, "lixbox-redis-index-migration");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+
+
+    /**
+     * Cette methode fait servir le nom logique par la nouvelle version de
+     * l'index et supprime l'ancienne. Un index d'origine portant le nom
+     * logique est supprime avant la creation de l'alias: les recherches
+     * echouent le temps de ces deux commandes.
+     */
+    private void swapAlias(UnifiedJedis redisClient, String indexName, String targetIndex, String previousIndex)
+    {
+        if (previousIndex.equals(indexName))
+        {
+            redisClient.ftDropIndex(previousIndex);
+            redisClient.ftAliasAdd(indexName, targetIndex);
+        }
+        else
+        {
+            redisClient.ftAliasUpdate(indexName, targetIndex);
+            redisClient.ftDropIndex(previousIndex);
+        }
+    }
+
+
+
+    /**
+     * Cette methode acheve une bascule interrompue: l'empreinte est a jour
+     * mais le nom logique sert encore l'ancienne version.
+     */
+    private void repairAlias(UnifiedJedis redisClient, String indexName, Map<String, String> metadata, 
+            Map<String, Object> info)
+    {
+        String targetIndex = metadata.get(INDEX_FIELD);
+        String servedIndex = toText(info.getOrDefault("index_name", indexName));
+        if (targetIndex!=null && !targetIndex.equals(servedIndex))
+        {
+            LOG.info("Index "+indexName+" completing the swap from "+servedIndex+" to "+targetIndex);
+            try
+            {
+                swapAlias(redisClient, indexName, targetIndex, servedIndex);
+            }
+            catch (JedisDataException jde)
+            {
+                LOG.warn("Index "+indexName+" swap to "+targetIndex+" failed: "+jde.getMessage());
+            }
+        }
+    }
+
+
+
+    /**
+     * Cette methode attend la fin de l'indexation des documents existants
+     * par un index. Le serveur est interroge a intervalle fixe et
+     * l'avancement journalise au plus toutes les dix secondes.
+     */
+    private void awaitIndexing(UnifiedJedis redisClient, String indexName) throws InterruptedException
+    {
+        long lastProgress = System.currentTimeMillis();
+        while (true)
+        {
+            Map<String, Object> info = redisClient.ftInfo(indexName);
+            if (toDouble(info.get("indexing"))==0)
+            {
+                return;
+            }
+            if (System.currentTimeMillis()-lastProgress>=PROGRESS_INTERVAL)
+            {
+                LOG.info("Index "+indexName+" rebuilding: "+Math.round(toDouble(info.get("percent_indexed"))*100)+"%");
+                lastProgress = System.currentTimeMillis();
+            }
+            Thread.sleep(POLL_INTERVAL);
+        }
+    }
+
+
+
+    private void storeMetadata(UnifiedJedis redisClient, String indexName, String physicalIndex, String fingerprint, 
+            List<String> fields)
+    {
+        Map<String, String> metadata = new HashMap<>();
+        metadata.put(FINGERPRINT_FIELD, fingerprint);
+        metadata.put(SCHEMA_FIELD, String.join(FIELD_SEPARATOR, fields));
+        metadata.put(INDEX_FIELD, physicalIndex);
+        metadata.put(FORMAT_FIELD, FORMAT);
+        redisClient.hset(getMetadataKey(indexName), metadata);
+    }
+
+
+
+    private Map<String, Object> getInfo(UnifiedJedis redisClient, String indexName)
+    {
+        try
+        {
+            Map<String, Object> result = redisClient.ftInfo(indexName);
+            LOG.debug(result);
+            return result;
+        }
+        catch (JedisDataException jde)
+        {
+            return null;
+        }
+    }
+
+
+
+    private void createIndex(UnifiedJedis redisClient, String indexName, RedisSearchDao object, 
+            RedisStorageMode storageMode, Schema schema)
+    {
+        IndexOptions options = IndexOptions.defaultOptions();
+        if (object.getTTL()>0)
+        {
+            options.setTemporary(object.getTTL()/1000);
+        }
+        IndexDefinition rule;
+        if (RedisStorageMode.JSON.equals(storageMode))
+        {
+            rule = new IndexDefinition(IndexDefinition.Type.JSON).setPrefixes(getPrefix(object, storageMode));
+        }
+        else
+        {
+            rule = new IndexDefinition().setPrefixes(getPrefix(object, storageMode));
+        }
+        options.setDefinition(rule);
+        try
+        {
+            redisClient.ftCreate(indexName, options, schema);
+        }
+        catch (JedisDataException jde)
+        {
+            if (jde.getMessage()==null || !jde.getMessage().toLowerCase().contains("already exists"))
+            {
+                throw jde;
+            }
+            LOG.debug("Index "+indexName+" created concurrently");
+        }
+    }
+
+
+
+    private static Schema getSchema(RedisSearchDao object, RedisStorageMode storageMode)
+    {
+        if (RedisStorageMode.JSON.equals(storageMode))
+        {
+            return RedisJsonDocument.toJsonSchema(object.getIndexSchema());
+        }
+        return object.getIndexSchema();
+    }
+
+
+
+    private static String getPrefix(RedisSearchDao object, RedisStorageMode storageMode)
+    {
+        if (RedisStorageMode.JSON.equals(storageMode))
+        {
+            return RedisJsonDocument.getKeyPrefix(object);
+        }
+        return object.getClass().getName()+":";
+    }
+
+
+
+    private static List<String> describe(Schema schema)
+    {
+        List<String> result = new ArrayList<>(schema.fields.size());
+        for (Field field : schema.fields)
+        {
+            result.add(field.name+" "+field.type+(field.sortable?" SORTABLE":"")+(field.noindex?" NOINDEX":""));
+        }
+        return result;
+    }
+
+
+
+    private static String fingerprint(String prefix, List<String> fields)
+    {
+        try
+        {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            digest.update(prefix.getBytes(StandardCharsets.UTF_8));
+            for (String field : fields)
+            {
+                digest.update(FIELD_SEPARATOR.getBytes(StandardCharsets.UTF_8));
+                digest.update(field.getBytes(StandardCharsets.UTF_8));
+            }
+            digest.update((FIELD_SEPARATOR+FORMAT_FIELD+" "+FORMAT).getBytes(StandardCharsets.UTF_8));
+            StringBuilder result = new StringBuilder();
+            for (byte value : digest.digest())
+            {
+                result.append(Character.forDigit((value>>4) & 0xF, 16)).append(Character.forDigit(value & 0xF, 16));
+            }
+            return result.toString();
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            throw new IllegalStateException(e);
+        }
+    }
+
+
+
+    /**
+     * Cette methode lit le nom et le chemin des champs d'un index dans la
+     * reponse de FT.INFO (attributes depuis RediSearch 2.2, fields avant).
+     */
+    private static Set<String> getAttributeNames(Map<String, Object> info)
+    {
+        Set<String> result = new HashSet<>();
+        Object attributes = info.containsKey("attributes")?info.get("attributes"):info.get("fields");
+        if (attributes instanceof List)
+        {
+            for (Object attribute : (List<?>) attributes)
+            {
+                if (attribute instanceof List && !((List<?>) attribute).isEmpty())
+                {
+                    List<?> values = (List<?>) attribute;
+                    result.add(toText(values.get(0)));
+                    for (int ix=0; ix+1<values.size(); ix++)
+                    {
+                        String key = toText(values.get(ix));
+                        if ("identifier".equals(key) || "attribute".equals(key))
+                        {
+                            result.add(toText(values.get(ix+1)));
+                        }
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+
+
+    private static String toText(Object value)
+    {
+        return value instanceof byte[]?SafeEncoder.encode((byte[]) value):String.valueOf(value);
+    }
+
+
+
+    private static double toDouble(Object value)
+    {
+        try
+        {
+            return value!=null?Double.parseDouble(toText(value)):0;
+        }
+        catch (NumberFormatException e)
+        {
+            return 0;
+        }
+    }
+}
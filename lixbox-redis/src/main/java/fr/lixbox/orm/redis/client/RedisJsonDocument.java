@@ -0,0 +1,353 @@
+/*******************************************************************************
+ *    
+ *                           FRAMEWORK Lixbox
+ *                          ==================
+ *      
+ * This file is part of lixbox-orm.
+ *
+ *    lixbox-orm is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    lixbox-orm is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *    along with lixbox-orm.  If not, see <https://www.gnu.org/licenses/>
+ *   
+ *   @AUTHOR Lixbox-team
+ *
+ ******************************************************************************/
+package fr.lixbox.orm.redis.client;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import fr.lixbox.orm.redis.model.RedisSearchDao;
+import redis.clients.jedis.CommandArguments;
+import redis.clients.jedis.args.Rawable;
+import redis.clients.jedis.search.FieldName;
+import redis.clients.jedis.search.Schema;
+import redis.clients.jedis.search.Schema.Field;
+import redis.clients.jedis.search.Schema.FieldType;
+import redis.clients.jedis.search.SearchProtocol.SearchCommand;
+import redis.clients.jedis.util.SafeEncoder;
+
+/**
+ * Cette classe construit les documents RedisJSON du mode de stockage
+ * {@link fr.lixbox.orm.redis.model.RedisStorageMode#JSON}.
+ *
+ * Un document a la forme suivante:
+ * <pre>
+ * { "entity": {...}, "index": {...}, "oid": "...", "key": "...", "type_object": "..." }
+ * </pre>
+ * L'index RediSearch porte sur les chemins $.index.*, l'entite est relue
+ * par le chemin $.entity.
+ *
+ * @author ludovic.terral
+ */
+public final class RedisJsonDocument
+{
+    // ----------- Attibuts -----------
+    public static final String ENTITY_FIELD = "entity";
+    public static final String INDEX_FIELD = "index";
+    public static final String ENTITY_PATH = "$."+ENTITY_FIELD;
+    public static final String INDEX_PATH = "$."+INDEX_FIELD;
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+
+
+    //----------- Methodes -----------
+    private RedisJsonDocument()
+    {
+        //singleton
+    }
+
+
+
+    /**
+     * Cette methode construit le document json d'une entite.
+     *
+     * @param entityJson le json de l'entite
+     * @param indexFields les valeurs des champs indexes
+     * @param metaFields les champs techniques (oid, cle, type)
+     * @param schema le schema d'index de l'entite
+     *
+     * @return le document json.
+     */
+    public static String toDocument(String entityJson, Map<String, String> indexFields, Map<String, String> metaFields, Schema schema)
+    {
+        StringWriter writer = new StringWriter(entityJson.length()+256);
+        try (JsonGenerator generator = JSON_FACTORY.createGenerator(writer))
+        {
+            generator.writeStartObject();
+            generator.writeFieldName(ENTITY_FIELD);
+            generator.writeRawValue(entityJson);
+            generator.writeObjectFieldStart(INDEX_FIELD);
+            for (Entry<String, String> entry : indexFields.entrySet())
+            {
+                writeIndexValue(generator, entry.getKey(), entry.getValue(), isNumeric(schema, entry.getKey()));
+            }
+            generator.writeEndObject();
+            for (Entry<String, String> entry : metaFields.entrySet())
+            {
+                generator.writeStringField(entry.getKey(), entry.getValue());
+            }
+            generator.writeEndObject();
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+        return writer.toString();
+    }
+
+
+
+    /**
+     * Cette methode serialise la valeur d'un champ indexe telle qu'elle
+     * doit etre ecrite sous $.index.
+     *
+     * @param value
+     * @param numeric
+     *
+     * @return le json de la valeur.
+     */
+    public static String toIndexValue(String value, boolean numeric)
+    {
+        StringWriter writer = new StringWriter();
+        try (JsonGenerator generator = JSON_FACTORY.createGenerator(writer))
+        {
+            if (numeric && isNumber(value))
+            {
+                generator.writeNumber(value);
+            }
+            else
+            {
+                generator.writeString(value);
+            }
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+        return writer.toString();
+    }
+
+
+
+    /**
+     * Cette methode transpose le schema d'une entite sur les chemins
+     * json du document.
+     *
+     * @param schema
+     *
+     * Les attributs propres au type, comme le poids d'un champ TEXT ou le
+     * separateur d'un champ TAG, sont conserves.
+     *
+     * @return le schema ON JSON.
+     */
+    public static Schema toJsonSchema(Schema schema)
+    {
+        Schema result = new Schema();
+        for (Field field : schema.fields)
+        {
+            result.addField(new JsonPathField(field));
+        }
+        return result;
+    }
+
+
+
+    /**
+     * Cette methode renvoie le prefixe des cles d'une entite, c'est a dire
+     * sa cle privee de l'oid.
+     *
+     * @param object
+     *
+     * @return le prefixe des cles.
+     */
+    public static String getKeyPrefix(RedisSearchDao object)
+    {
+        String key = object.getKey();
+        String oid = object.getOid();
+        if (oid!=null && key.endsWith(oid))
+        {
+            return key.substring(0, key.length()-oid.length());
+        }
+        return key;
+    }
+
+
+
+    /**
+     * Cette methode extrait la valeur d'une reponse JSON.GET sur un chemin
+     * $, renvoyee sous forme de tableau.
+     *
+     * @param value
+     *
+     * @return la valeur sans le tableau englobant.
+     */
+    public static String unwrap(String value)
+    {
+        if (value!=null && value.startsWith("[") && value.endsWith("]"))
+        {
+            String result = value.substring(1, value.length()-1).trim();
+            return result.isEmpty()?null:result;
+        }
+        return value;
+    }
+
+
+
+    /**
+     * Cette methode extrait le json de proprietes d'une entite serialisee.
+     *
+     * @param entityJson
+     * @param fields
+     *
+     * @return le json de chaque propriete, null json si absente.
+     */
+    public static Map<String, String> extractFields(String entityJson, Collection<String> fields)
+    {
+        Map<String, String> result = new LinkedHashMap<>();
+        for (String field : fields)
+        {
+            result.put(field, "null");
+        }
+        try (JsonParser parser = JSON_FACTORY.createParser(entityJson))
+        {
+            if (parser.nextToken()==JsonToken.START_OBJECT)
+            {
+                while (parser.nextToken()==JsonToken.FIELD_NAME)
+                {
+                    String field = parser.getCurrentName();
+                    parser.nextToken();
+                    if (result.containsKey(field))
+                    {
+                        StringWriter value = new StringWriter();
+                        try (JsonGenerator generator = JSON_FACTORY.createGenerator(value))
+                        {
+                            generator.copyCurrentStructure(parser);
+                        }
+                        result.put(field, value.toString());
+                    }
+                    else
+                    {
+                        parser.skipChildren();
+                    }
+                }
+            }
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+        return result;
+    }
+
+
+
+    public static boolean isNumeric(Schema schema, String fieldName)
+    {
+        for (Field field : schema.fields)
+        {
+            if (field.name.equals(fieldName))
+            {
+                return FieldType.NUMERIC.equals(field.type);
+            }
+        }
+        return false;
+    }
+
+
+
+    private static void writeIndexValue(JsonGenerator generator, String name, String value, boolean numeric) throws IOException
+    {
+        if (numeric && isNumber(value))
+        {
+            generator.writeFieldName(name);
+            generator.writeNumber(value);
+        }
+        else
+        {
+            generator.writeStringField(name, value);
+        }
+    }
+
+
+
+    private static boolean isNumber(String value)
+    {
+        if (value==null || value.isEmpty())
+        {
+            return false;
+        }
+        try
+        {
+            Double.parseDouble(value);
+            return true;
+        }
+        catch (NumberFormatException e)
+        {
+            return false;
+        }
+    }
+
+
+
+    /**
+     * Ce champ porte un champ du schema de l'entite sur son chemin json.
+     * Jedis n'expose pas les attributs propres au type (WEIGHT, SEPARATOR,
+     * PHONETIC...): ils sont recopies depuis les arguments du champ
+     * d'origine, entre son type et ses options SORTABLE et NOINDEX.
+     */
+    private static final class JsonPathField extends Field
+    {
+        private static final String ALIAS = "AS";
+
+        private final Field field;
+
+
+
+        JsonPathField(Field field)
+        {
+            super(FieldName.of(INDEX_PATH+"."+field.name).as(field.name), field.type, field.sortable, field.noindex);
+            this.field = field;
+        }
+
+
+
+        @Override
+        protected void addTypeArgs(CommandArguments args)
+        {
+            List<Rawable> source = new ArrayList<>();
+            for (Rawable arg : new CommandArguments(SearchCommand.CREATE).addParams(field))
+            {
+                source.add(arg);
+            }
+            int from = source.size()>2 && ALIAS.equals(SafeEncoder.encode(source.get(2).getRaw()))?5:3;
+            int to = source.size()-(field.sortable?1:0)-(field.noindex?1:0);
+            for (int ix=from; ix<to; ix++)
+            {
+                args.add(source.get(ix));
+            }
+        }
+    }
+}
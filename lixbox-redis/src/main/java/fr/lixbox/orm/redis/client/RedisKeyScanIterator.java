@@ -0,0 +1,104 @@
+/*******************************************************************************
+ *    
+ *                           FRAMEWORK Lixbox
+ *                          ==================
+ *      
+ * This file is part of lixbox-orm.
+ *
+ *    lixbox-orm is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    lixbox-orm is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *    along with lixbox-orm.  If not, see <https://www.gnu.org/licenses/>
+ *   
+ *   @AUTHOR Lixbox-team
+ *
+ ******************************************************************************/
+package fr.lixbox.orm.redis.client;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import redis.clients.jedis.UnifiedJedis;
+import redis.clients.jedis.params.ScanParams;
+import redis.clients.jedis.resps.ScanResult;
+
+/**
+ * Cet iterateur parcourt les cles redis par curseur SCAN. Seule la page
+ * courante est conservee en memoire et le serveur n'est jamais bloque.
+ *
+ * Une cle peut etre renvoyee plusieurs fois si le keyspace est modifie
+ * pendant le parcours. En mode cluster, les noeuds primaires sont
+ * parcourus l'un apres l'autre.
+ *
+ * @author ludovic.terral
+ */
+public class RedisKeyScanIterator implements Iterator<String>
+{
+    // ----------- Attibuts -----------
+    private final List<? extends UnifiedJedis> nodes;
+    private final ScanParams params;
+    private int nodeIndex = 0;
+    private String cursor = ScanParams.SCAN_POINTER_START;
+    private Iterator<String> page = Collections.emptyIterator();
+    private boolean finished = false;
+
+
+
+    //----------- Methodes -----------
+    public RedisKeyScanIterator(UnifiedJedis redisClient, String pattern, int count)
+    {
+        this(Collections.singletonList(redisClient), pattern, count);
+    }
+    /**
+     * @param nodes clients des noeuds a parcourir
+     * @param pattern
+     * @param count nombre de cles demandees au serveur par iteration
+     */
+    public RedisKeyScanIterator(List<? extends UnifiedJedis> nodes, String pattern, int count)
+    {
+        this.nodes = nodes;
+        this.params = new ScanParams().match(pattern).count(count);
+        this.finished = nodes.isEmpty();
+    }
+
+
+
+    @Override
+    public boolean hasNext()
+    {
+        while (!page.hasNext() && !finished)
+        {
+            ScanResult<String> result = nodes.get(nodeIndex).scan(cursor, params);
+            cursor = result.getCursor();
+            if (ScanParams.SCAN_POINTER_START.equals(cursor))
+            {
+                nodeIndex++;
+                finished = nodeIndex>=nodes.size();
+            }
+            page = result.getResult().iterator();
+        }
+        return page.hasNext();
+    }
+
+
+
+    @Override
+    public String next()
+    {
+        if (!hasNext())
+        {
+            throw new NoSuchElementException();
+        }
+        return page.next();
+    }
+}
@@ -0,0 +1,161 @@
+/*******************************************************************************
+ *    
+ *                           FRAMEWORK Lixbox
+ *                          ==================
+ *      
+ * This file is part of lixbox-orm.
+ *
+ *    lixbox-orm is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    lixbox-orm is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *    along with lixbox-orm.  If not, see <https://www.gnu.org/licenses/>
+ *   
+ *   @AUTHOR Lixbox-team
+ *
+ ******************************************************************************/
+package fr.lixbox.orm.redis.client;
+
+import fr.lixbox.orm.redis.model.RedisSearchDao;
+
+/**
+ * Ce gabarit calcule la cle d'une entite a partir de son oid sans
+ * instancier l'entite. Il est construit une seule fois par classe en
+ * observant la cle d'une instance temoin.
+ *
+ * Si la cle ne se deduit pas de l'oid par simple concatenation, le
+ * gabarit se rabat sur une instance par oid.
+ *
+ * @author ludovic.terral
+ */
+public final class RedisKeyTemplate
+{
+    // ----------- Attibuts -----------
+    private static final String OID_MARKER = "\u0000oid\u0000";
+    private static final ClassValue<RedisKeyTemplate> TEMPLATES = new ClassValue<RedisKeyTemplate>()
+    {
+        @Override
+        protected RedisKeyTemplate computeValue(Class<?> type)
+        {
+            return new RedisKeyTemplate(type);
+        }
+    };
+
+    private final Class<?> entityClass;
+    private final String prefix;
+    private final String suffix;
+
+
+
+    //----------- Methodes -----------
+    private RedisKeyTemplate(Class<?> entityClass)
+    {
+        this.entityClass = entityClass;
+        String key = newInstance(entityClass, OID_MARKER).getKey();
+        int index = key!=null?key.indexOf(OID_MARKER):-1;
+        if (index>=0 && key.indexOf(OID_MARKER, index+1)<0)
+        {
+            this.prefix = key.substring(0, index);
+            this.suffix = key.substring(index+OID_MARKER.length());
+        }
+        else
+        {
+            this.prefix = null;
+            this.suffix = null;
+        }
+    }
+
+
+
+    public static RedisKeyTemplate of(Class<? extends RedisSearchDao> entityClass)
+    {
+        return TEMPLATES.get(entityClass);
+    }
+
+
+
+    /**
+     * @param oid
+     *
+     * @return la cle de l'entite portant cet oid.
+     */
+    public String getKey(String oid)
+    {
+        if (prefix!=null)
+        {
+            return prefix+oid+suffix;
+        }
+        return newInstance(entityClass, oid).getKey();
+    }
+
+
+
+    /**
+     * Cette methode renvoie la cle du hash d'index d'une entite. En mode
+     * cluster, elle porte le hash tag de la cle de l'entite afin que les
+     * deux cles partagent le meme slot: classe:{tag}:oid.
+     *
+     * @param entityClass
+     * @param key cle de l'entite
+     * @param oid
+     * @param hashTagged true en mode cluster
+     *
+     * @return la cle du hash d'index.
+     */
+    public static String getIndexKey(Class<?> entityClass, String key, String oid, boolean hashTagged)
+    {
+        if (!hashTagged)
+        {
+            return entityClass.getName()+":"+oid;
+        }
+        return entityClass.getName()+":{"+getHashTag(key)+"}:"+oid;
+    }
+
+
+
+    /**
+     * Cette methode renvoie la partie d'une cle utilisee par redis pour
+     * calculer son slot: le contenu du premier {...} non vide, la cle
+     * entiere sinon.
+     *
+     * @param key
+     *
+     * @return le hash tag de la cle.
+     */
+    public static String getHashTag(String key)
+    {
+        int start = key.indexOf('{');
+        if (start>=0)
+        {
+            int end = key.indexOf('}', start+1);
+            if (end>start+1)
+            {
+                return key.substring(start+1, end);
+            }
+        }
+        return key;
+    }
+
+
+
+    private static RedisSearchDao newInstance(Class<?> entityClass, String oid)
+    {
+        try
+        {
+            RedisSearchDao result = (RedisSearchDao) entityClass.getDeclaredConstructor().newInstance();
+            result.setOid(oid);
+            return result;
+        }
+        catch (ReflectiveOperationException e)
+        {
+            throw new IllegalStateException("Unable to instantiate "+entityClass.getName(), e);
+        }
+    }
+}
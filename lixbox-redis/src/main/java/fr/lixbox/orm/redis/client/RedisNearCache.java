@@ -0,0 +1,365 @@
+/*******************************************************************************
+ *    
+ *                           FRAMEWORK Lixbox
+ *                          ==================
+ *      
+ * This file is part of lixbox-orm.
+ *
+ *    lixbox-orm is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    lixbox-orm is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *    along with lixbox-orm.  If not, see <https://www.gnu.org/licenses/>
+ *   
+ *   @AUTHOR Lixbox-team
+ *
+ ******************************************************************************/
+package fr.lixbox.orm.redis.client;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import redis.clients.jedis.JedisPubSub;
+import redis.clients.jedis.Protocol.Command;
+import redis.clients.jedis.UnifiedJedis;
+import redis.clients.jedis.exceptions.JedisException;
+import redis.clients.jedis.util.SafeEncoder;
+
+/**
+ * Ce cache local conserve les entites deserialisees les plus utilisees.
+ * Il est borne en taille avec une eviction LRU et reste coherent grace
+ * aux notifications keyspace de redis: toute modification d'une cle
+ * sur le serveur l'invalide localement. En mode cluster, un abonnement
+ * est ouvert sur chaque noeud primaire.
+ *
+ * Le client ne modifie pas la configuration du serveur: les drapeaux
+ * Kg$hxe de notify-keyspace-events doivent etre positionnes par
+ * l'exploitation. S'ils manquent, ou ne peuvent etre verifies (ACL,
+ * redis manage), le cache reste desactive.
+ *
+ * Tant que l'abonnement aux notifications n'est pas actif, aucune
+ * entite n'est mise en cache. Les entites renvoyees sont partagees
+ * entre les appelants et ne doivent pas etre modifiees.
+ *
+ * @author ludovic.terral
+ */
+public class RedisNearCache implements AutoCloseable
+{
+    // ----------- Attibuts -----------
+    private static final Log LOG = LogFactory.getLog(RedisNearCache.class);
+    private static final String KEYSPACE_PREFIX = "__keyspace@";
+    private static final String KEYSPACE_SEPARATOR = "__:";
+    private static final long RETRY_DELAY = 1000;
+    private static final String NOTIFY_KEYSPACE_EVENTS = "notify-keyspace-events";
+    private static final String REQUIRED_NOTIFY_FLAGS = "Kg$hxe";
+    private static final String ALL_EVENTS_FLAG = "A";
+    private static final String ALL_EVENTS_ALIAS = "g$lshzxet";
+
+    private final String keyPattern;
+    private final Map<String, Object> entries;
+    private final List<InvalidationListener> listeners = new ArrayList<>();
+    private long epoch = 0;
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+    private long invalidations = 0;
+    private volatile boolean closed = false;
+
+
+
+    //----------- Methodes -----------
+    /**
+     * @param redisClient
+     * @param maxSize nombre maximum d'entites conservees
+     * @param keyPattern pattern des cles surveillees
+     */
+    public RedisNearCache(UnifiedJedis redisClient, int maxSize, String keyPattern)
+    {
+        this(Collections.singletonList(redisClient), maxSize, keyPattern);
+    }
+    /**
+     * @param nodes clients des noeuds dont les notifications sont suivies
+     * @param maxSize nombre maximum d'entites conservees
+     * @param keyPattern pattern des cles surveillees
+     */
+    public RedisNearCache(List<? extends UnifiedJedis> nodes, int maxSize, String keyPattern)
+    {
+        this.keyPattern = keyPattern;
+        this.entries = new LinkedHashMap<String, Object>(16, 0.75f, true)
+        {
+            private static final long serialVersionUID = 202210170008L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Object> eldest)
+            {
+                boolean result = size()>maxSize;
+                if (result)
+                {
+                    evictions++;
+                }
+                return result;
+            }
+        };
+        for (UnifiedJedis node : nodes)
+        {
+            if (!hasNotifications(node))
+            {
+                listeners.clear();
+                break;
+            }
+            listeners.add(new InvalidationListener(node));
+        }
+        for (InvalidationListener listener : listeners)
+        {
+            listener.start();
+        }
+    }
+
+
+
+    public synchronized Object get(String key)
+    {
+        Object result = entries.get(key);
+        if (result!=null)
+        {
+            hits++;
+        }
+        else
+        {
+            misses++;
+        }
+        return result;
+    }
+
+
+
+    /**
+     * Cette methode renvoie le numero de version du cache. Il doit etre lu
+     * avant la lecture sur le serveur et fourni a {@link #put(String, Object, long)}.
+     *
+     * @return la version courante.
+     */
+    public synchronized long getEpoch()
+    {
+        return epoch;
+    }
+
+
+
+    /**
+     * Cette methode met une entite en cache si aucune invalidation n'a eu
+     * lieu depuis la lecture de la version fournie.
+     *
+     * @param key
+     * @param value
+     * @param readEpoch
+     */
+    public synchronized void put(String key, Object value, long readEpoch)
+    {
+        if (isSubscribed() && !closed && value!=null && readEpoch==epoch)
+        {
+            entries.put(key, value);
+        }
+    }
+
+
+
+    public synchronized void invalidate(String key)
+    {
+        epoch++;
+        if (entries.remove(key)!=null)
+        {
+            invalidations++;
+        }
+    }
+
+
+
+    public synchronized void invalidateAll()
+    {
+        epoch++;
+        invalidations += entries.size();
+        entries.clear();
+    }
+
+
+
+    public synchronized RedisNearCacheStatistics getStatistics()
+    {
+        RedisNearCacheStatistics result = new RedisNearCacheStatistics();
+        result.setSize(entries.size());
+        result.setHits(hits);
+        result.setMisses(misses);
+        result.setEvictions(evictions);
+        result.setInvalidations(invalidations);
+        result.setSubscribed(isSubscribed());
+        return result;
+    }
+
+
+
+    @Override
+    public void close()
+    {
+        closed = true;
+        for (InvalidationListener listener : listeners)
+        {
+            listener.stop();
+        }
+        invalidateAll();
+    }
+
+
+
+    private boolean isSubscribed()
+    {
+        for (InvalidationListener listener : listeners)
+        {
+            if (!listener.active)
+            {
+                return false;
+            }
+        }
+        return !listeners.isEmpty();
+    }
+
+
+
+    /**
+     * Cette methode verifie que le noeud publie les notifications keyspace
+     * necessaires a l'invalidation du cache.
+     *
+     * @return false si un drapeau manque ou si la configuration est illisible.
+     */
+    private static boolean hasNotifications(UnifiedJedis node)
+    {
+        try
+        {
+            List<?> reply = (List<?>) node.sendCommand(Command.CONFIG, "GET", NOTIFY_KEYSPACE_EVENTS);
+            String current = reply.size()>1?SafeEncoder.encode((byte[]) reply.get(1)):"";
+            if (current.contains(ALL_EVENTS_FLAG))
+            {
+                current += ALL_EVENTS_ALIAS;
+            }
+            StringBuilder missing = new StringBuilder();
+            for (char flag : REQUIRED_NOTIFY_FLAGS.toCharArray())
+            {
+                if (current.indexOf(flag)<0)
+                {
+                    missing.append(flag);
+                }
+            }
+            if (missing.length()==0)
+            {
+                return true;
+            }
+            LOG.warn("Near cache disabled, "+NOTIFY_KEYSPACE_EVENTS+" must contain "+REQUIRED_NOTIFY_FLAGS+", missing: "+missing);
+        }
+        catch (JedisException je)
+        {
+            LOG.warn("Near cache disabled, unable to check "+NOTIFY_KEYSPACE_EVENTS+": "+je.getMessage());
+        }
+        return false;
+    }
+
+
+
+    private class InvalidationListener extends JedisPubSub
+    {
+        private final UnifiedJedis node;
+        private final Thread thread;
+        private volatile boolean active = false;
+
+
+
+        InvalidationListener(UnifiedJedis node)
+        {
+            this.node = node;
+            this.thread = new Thread(this::listen, "lixbox-redis-near-cache");
+            this.thread.setDaemon(true);
+        }
+
+
+
+        void start()
+        {
+            thread.start();
+        }
+
+
+
+        void stop()
+        {
+            if (isSubscribed())
+            {
+                punsubscribe();
+            }
+            thread.interrupt();
+        }
+
+
+
+        @Override
+        public void onPSubscribe(String pattern, int subscribedChannels)
+        {
+            invalidateAll();
+            active = true;
+        }
+
+
+
+        @Override
+        public void onPMessage(String pattern, String channel, String message)
+        {
+            int index = channel.indexOf(KEYSPACE_SEPARATOR);
+            if (index>0)
+            {
+                invalidate(channel.substring(index+KEYSPACE_SEPARATOR.length()));
+            }
+        }
+
+
+
+        private void listen()
+        {
+            while (!closed)
+            {
+                try
+                {
+                    node.psubscribe(this, KEYSPACE_PREFIX+"*"+KEYSPACE_SEPARATOR+keyPattern);
+                }
+                catch (JedisException je)
+                {
+                    LOG.warn("Near cache invalidation stream lost: "+je.getMessage());
+                }
+                active = false;
+                invalidateAll();
+                if (!closed)
+                {
+                    try
+                    {
+                        Thread.sleep(RETRY_DELAY);
+                    }
+                    catch (InterruptedException ie)
+                    {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,131 @@
+/*******************************************************************************
+ *    
+ *                           FRAMEWORK Lixbox
+ *                          ==================
+ *      
+ * This file is part of lixbox-orm.
+ *
+ *    lixbox-orm is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    lixbox-orm is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *    along with lixbox-orm.  If not, see <https://www.gnu.org/licenses/>
+ *   
+ *   @AUTHOR Lixbox-team
+ *
+ ******************************************************************************/
+package fr.lixbox.orm.redis.client;
+
+import java.io.Serializable;
+
+/**
+ * Cette classe est une photographie de l'etat du cache local des entites.
+ *
+ * @author ludovic.terral
+ */
+public class RedisNearCacheStatistics implements Serializable
+{
+    // ----------- Attibuts -----------
+    private static final long serialVersionUID = 202210170008L;
+
+    private long size;
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long invalidations;
+    private boolean subscribed;
+
+
+
+    //----------- Methodes -----------
+    public long getSize()
+    {
+        return size;
+    }
+    public void setSize(long size)
+    {
+        this.size = size;
+    }
+
+
+
+    public long getHits()
+    {
+        return hits;
+    }
+    public void setHits(long hits)
+    {
+        this.hits = hits;
+    }
+
+
+
+    public long getMisses()
+    {
+        return misses;
+    }
+    public void setMisses(long misses)
+    {
+        this.misses = misses;
+    }
+
+
+
+    public long getEvictions()
+    {
+        return evictions;
+    }
+    public void setEvictions(long evictions)
+    {
+        this.evictions = evictions;
+    }
+
+
+
+    public long getInvalidations()
+    {
+        return invalidations;
+    }
+    public void setInvalidations(long invalidations)
+    {
+        this.invalidations = invalidations;
+    }
+
+
+
+    public boolean isSubscribed()
+    {
+        return subscribed;
+    }
+    public void setSubscribed(boolean subscribed)
+    {
+        this.subscribed = subscribed;
+    }
+
+
+
+    /**
+     * @return la part des lectures servies par le cache.
+     */
+    public double getHitRatio()
+    {
+        long total = hits+misses;
+        return total>0?(double) hits/total:0;
+    }
+
+
+
+    @Override
+    public String toString()
+    {
+        return "RedisNearCacheStatistics [size=" + size + ", hits=" + hits + ", misses=" + misses +
+                ", evictions=" + evictions + ", invalidations=" + invalidations + ", subscribed=" + subscribed + "]";
+    }
+}
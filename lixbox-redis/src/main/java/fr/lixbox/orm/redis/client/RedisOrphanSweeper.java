@@ -0,0 +1,272 @@
+/*******************************************************************************
+ *    
+ *                           FRAMEWORK Lixbox
+ *                          ==================
+ *      
+ * This file is part of lixbox-orm.
+ *
+ *    lixbox-orm is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    lixbox-orm is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *    along with lixbox-orm.  If not, see <https://www.gnu.org/licenses/>
+ *   
+ *   @AUTHOR Lixbox-team
+ *
+ ******************************************************************************/
+package fr.lixbox.orm.redis.client;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import fr.lixbox.orm.redis.script.RedisScript;
+import fr.lixbox.orm.redis.script.RedisScriptRegistry;
+
+import redis.clients.jedis.JedisPooled;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.exceptions.JedisDataException;
+import redis.clients.jedis.exceptions.JedisException;
+import redis.clients.jedis.params.ScanParams;
+import redis.clients.jedis.resps.ScanResult;
+import redis.clients.jedis.util.SafeEncoder;
+
+/**
+ * Ce balayeur supprime les hash d'index dont l'entite n'existe plus,
+ * par exemple apres l'expiration de sa cle. Chaque etape ne traite
+ * qu'une page SCAN afin de ne jamais bloquer le serveur.
+ *
+ * La suppression d'un hash est conditionnee a l'absence de l'entite
+ * par le script {@link RedisScript#REMOVE_ORPHAN}, un hash recree entre
+ * temps est donc conserve. En mode cluster, chaque noeud primaire est
+ * balaye a son tour.
+ *
+ * @author ludovic.terral
+ */
+public class RedisOrphanSweeper implements AutoCloseable
+{
+    // ----------- Attibuts -----------
+    private static final Log LOG = LogFactory.getLog(RedisOrphanSweeper.class);
+    private static final String HASH_TYPE = "hash";
+
+    private final RedisConnectionManager connections;
+    private final RedisScriptRegistry scripts;
+    private final List<String> patterns;
+    private final int count;
+    private final AtomicLong scanned = new AtomicLong();
+    private final AtomicLong removed = new AtomicLong();
+    private ScheduledExecutorService executor;
+    private List<JedisPooled> nodes;
+    private int patternIndex = 0;
+    private int nodeIndex = 0;
+    private String cursor = ScanParams.SCAN_POINTER_START;
+
+
+
+    //----------- Methodes -----------
+    /**
+     * @param connections
+     * @param scripts
+     * @param indexPrefixes prefixes des hash d'index a surveiller
+     * @param count nombre de cles par page SCAN
+     */
+    public RedisOrphanSweeper(RedisConnectionManager connections, RedisScriptRegistry scripts, List<String> indexPrefixes, int count)
+    {
+        this.connections = connections;
+        this.scripts = scripts;
+        this.count = count;
+        this.patterns = new ArrayList<>();
+        for (String prefix : indexPrefixes)
+        {
+            patterns.add(prefix+"*");
+        }
+    }
+
+
+
+    /**
+     * Cette methode traite la page SCAN suivante.
+     *
+     * @return true si un tour complet des prefixes vient de s'achever.
+     */
+    public synchronized boolean sweepStep()
+    {
+        if (patterns.isEmpty())
+        {
+            return true;
+        }
+        if (nodes==null)
+        {
+            nodes = connections.getPrimaryNodes();
+            if (nodes.isEmpty())
+            {
+                nodes = null;
+                return true;
+            }
+        }
+        JedisPooled node = nodes.get(nodeIndex);
+        ScanResult<String> page = node.scan(cursor, new ScanParams().match(patterns.get(patternIndex)).count(count), HASH_TYPE);
+        removeOrphans(node, page.getResult());
+        cursor = page.getCursor();
+        if (ScanParams.SCAN_POINTER_START.equals(cursor))
+        {
+            nodeIndex++;
+            if (nodeIndex<nodes.size())
+            {
+                return false;
+            }
+            nodeIndex = 0;
+            nodes = null;
+            patternIndex = (patternIndex+1)%patterns.size();
+            return patternIndex==0;
+        }
+        return false;
+    }
+
+
+
+    /**
+     * Cette methode effectue un tour complet des prefixes.
+     *
+     * @return le nombre de hash supprimes.
+     */
+    public synchronized long sweepAll()
+    {
+        long before = removed.get();
+        while (!sweepStep())
+        {
+            //page suivante
+        }
+        return removed.get()-before;
+    }
+
+
+
+    /**
+     * Cette methode lance le balayage en tache de fond, une page par periode.
+     *
+     * @param period delai entre deux pages en ms
+     */
+    public synchronized void start(long period)
+    {
+        if (executor==null)
+        {
+            executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "lixbox-redis-orphan-sweeper");
+                thread.setDaemon(true);
+                return thread;
+            });
+            executor.scheduleWithFixedDelay(this::safeSweepStep, period, period, TimeUnit.MILLISECONDS);
+        }
+    }
+
+
+
+    public long getScanned()
+    {
+        return scanned.get();
+    }
+
+
+
+    public long getRemoved()
+    {
+        return removed.get();
+    }
+
+
+
+    @Override
+    public synchronized void close()
+    {
+        if (executor!=null)
+        {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+
+
+    private void safeSweepStep()
+    {
+        try
+        {
+            sweepStep();
+        }
+        catch (JedisException je)
+        {
+            LOG.warn("Orphan sweep step failed: "+je.getMessage());
+        }
+    }
+
+
+
+    private void removeOrphans(JedisPooled node, List<String> indexKeys)
+    {
+        if (indexKeys.isEmpty())
+        {
+            return;
+        }
+        scanned.addAndGet(indexKeys.size());
+        List<Response<String>> entityKeys = new ArrayList<>(indexKeys.size());
+        try (Pipeline pipeline = RedisPooledPipeline.of(node.getPool()))
+        {
+            for (String indexKey : indexKeys)
+            {
+                entityKeys.add(pipeline.hget(indexKey, ExtendRedisClient.KEY_FIELD));
+            }
+            pipeline.sync();
+        }
+        List<Response<Object>> deletions = new ArrayList<>();
+        scripts.ensureLoaded(connections.getRedisClient(), indexKeys.get(0), RedisScript.REMOVE_ORPHAN);
+        try (Pipeline pipeline = RedisPooledPipeline.of(node.getPool()))
+        {
+            for (int ix=0; ix<indexKeys.size(); ix++)
+            {
+                String entityKey = entityKeys.get(ix).get();
+                if (entityKey!=null)
+                {
+                    List<byte[]> keys = Arrays.asList(SafeEncoder.encode(indexKeys.get(ix)), SafeEncoder.encode(entityKey));
+                    deletions.add(scripts.evalsha(pipeline, RedisScript.REMOVE_ORPHAN, keys, Collections.emptyList()));
+                }
+            }
+            pipeline.sync();
+        }
+        for (Response<Object> deletion : deletions)
+        {
+            try
+            {
+                if (Long.valueOf(1).equals(deletion.get()))
+                {
+                    removed.incrementAndGet();
+                }
+            }
+            catch (JedisDataException jde)
+            {
+                if (!RedisScriptRegistry.isNoScriptError(jde))
+                {
+                    throw jde;
+                }
+                //script purge du serveur: recharge et traitement au prochain tour
+                scripts.invalidate();
+            }
+        }
+    }
+}
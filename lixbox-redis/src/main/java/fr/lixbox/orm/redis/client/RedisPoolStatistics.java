@@ -0,0 +1,145 @@
+/*******************************************************************************
+ *    
+ *                           FRAMEWORK Lixbox
+ *                          ==================
+ *      
+ * This file is part of lixbox-orm.
+ *
+ *    lixbox-orm is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    lixbox-orm is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *    along with lixbox-orm.  If not, see <https://www.gnu.org/licenses/>
+ *   
+ *   @AUTHOR Lixbox-team
+ *
+ ******************************************************************************/
+package fr.lixbox.orm.redis.client;
+
+import java.io.Serializable;
+
+/**
+ * Cette classe est une photographie de l'etat du pool de connexions.
+ *
+ * @author ludovic.terral
+ */
+public class RedisPoolStatistics implements Serializable
+{
+    // ----------- Attibuts -----------
+    private static final long serialVersionUID = 202210170001L;
+
+    private int active;
+    private int idle;
+    private int waiters;
+    private long borrowed;
+    private long created;
+    private long destroyed;
+    private long meanBorrowWaitMillis;
+    private long maxBorrowWaitMillis;
+
+
+
+    //----------- Methodes -----------
+    public int getActive()
+    {
+        return active;
+    }
+    public void setActive(int active)
+    {
+        this.active = active;
+    }
+
+
+
+    public int getIdle()
+    {
+        return idle;
+    }
+    public void setIdle(int idle)
+    {
+        this.idle = idle;
+    }
+
+
+
+    public int getWaiters()
+    {
+        return waiters;
+    }
+    public void setWaiters(int waiters)
+    {
+        this.waiters = waiters;
+    }
+
+
+
+    public long getBorrowed()
+    {
+        return borrowed;
+    }
+    public void setBorrowed(long borrowed)
+    {
+        this.borrowed = borrowed;
+    }
+
+
+
+    public long getCreated()
+    {
+        return created;
+    }
+    public void setCreated(long created)
+    {
+        this.created = created;
+    }
+
+
+
+    public long getDestroyed()
+    {
+        return destroyed;
+    }
+    public void setDestroyed(long destroyed)
+    {
+        this.destroyed = destroyed;
+    }
+
+
+
+    public long getMeanBorrowWaitMillis()
+    {
+        return meanBorrowWaitMillis;
+    }
+    public void setMeanBorrowWaitMillis(long meanBorrowWaitMillis)
+    {
+        this.meanBorrowWaitMillis = meanBorrowWaitMillis;
+    }
+
+
+
+    public long getMaxBorrowWaitMillis()
+    {
+        return maxBorrowWaitMillis;
+    }
+    public void setMaxBorrowWaitMillis(long maxBorrowWaitMillis)
+    {
+        this.maxBorrowWaitMillis = maxBorrowWaitMillis;
+    }
+
+
+
+    @Override
+    public String toString()
+    {
+        return "RedisPoolStatistics [active=" + active + ", idle=" + idle + ", waiters=" + waiters +
+                ", borrowed=" + borrowed + ", created=" + created + ", destroyed=" + destroyed +
+                ", meanBorrowWaitMillis=" + meanBorrowWaitMillis + ", maxBorrowWaitMillis=" + maxBorrowWaitMillis + "]";
+    }
+}
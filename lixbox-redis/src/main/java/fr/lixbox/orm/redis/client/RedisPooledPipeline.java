@@ -0,0 +1,66 @@
+/*******************************************************************************
+ *    
+ *                           FRAMEWORK Lixbox
+ *                          ==================
+ *      
+ * This file is part of lixbox-orm.
+ *
+ *    lixbox-orm is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    lixbox-orm is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *    along with lixbox-orm.  If not, see <https://www.gnu.org/licenses/>
+ *   
+ *   @AUTHOR Lixbox-team
+ *
+ ******************************************************************************/
+package fr.lixbox.orm.redis.client;
+
+import redis.clients.jedis.Connection;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.util.Pool;
+
+/**
+ * Ce pipeline emprunte une connexion a un pool et la restitue a sa
+ * fermeture, apres avoir synchronise les reponses en attente. Jedis 4.2
+ * n'offre pas de pipeline sur un JedisPooled.
+ *
+ * @author ludovic.terral
+ */
+final class RedisPooledPipeline extends Pipeline
+{
+    //----------- Methodes -----------
+    RedisPooledPipeline(Connection connection)
+    {
+        super(connection);
+    }
+
+
+
+    static RedisPooledPipeline of(Pool<Connection> pool)
+    {
+        return new RedisPooledPipeline(pool.getResource());
+    }
+
+
+
+    @Override
+    public void close()
+    {
+        try
+        {
+            super.close();
+        }
+        finally
+        {
+            connection.close();
+        }
+    }
+}
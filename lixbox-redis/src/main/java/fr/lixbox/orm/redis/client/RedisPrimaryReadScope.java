@@ -0,0 +1,88 @@
+/*******************************************************************************
+ *    
+ *                           FRAMEWORK Lixbox
+ *                          ==================
+ *      
+ * This file is part of lixbox-orm.
+ *
+ *    lixbox-orm is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    lixbox-orm is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *    along with lixbox-orm.  If not, see <https://www.gnu.org/licenses/>
+ *   
+ *   @AUTHOR Lixbox-team
+ *
+ ******************************************************************************/
+package fr.lixbox.orm.redis.client;
+
+/**
+ * Cette portee force la lecture sur le primaire pour le thread courant,
+ * par exemple pour relire une entite juste apres son enregistrement.
+ * Les portees peuvent etre imbriquees et doivent etre fermees par le
+ * thread qui les a ouvertes.
+ *
+ * <pre>
+ * try (RedisPrimaryReadScope scope = client.readFromPrimary())
+ * {
+ *     client.findById(...);
+ * }
+ * </pre>
+ *
+ * @author ludovic.terral
+ */
+public final class RedisPrimaryReadScope implements AutoCloseable
+{
+    // ----------- Attibuts -----------
+    private static final ThreadLocal<int[]> DEPTH = new ThreadLocal<>();
+
+    private boolean closed = false;
+
+
+
+    //----------- Methodes -----------
+    RedisPrimaryReadScope()
+    {
+        int[] depth = DEPTH.get();
+        if (depth==null)
+        {
+            depth = new int[1];
+            DEPTH.set(depth);
+        }
+        depth[0]++;
+    }
+
+
+
+    /**
+     * @return true si le thread courant doit lire sur le primaire.
+     */
+    public static boolean isActive()
+    {
+        int[] depth = DEPTH.get();
+        return depth!=null && depth[0]>0;
+    }
+
+
+
+    @Override
+    public void close()
+    {
+        if (!closed)
+        {
+            closed = true;
+            int[] depth = DEPTH.get();
+            if (depth!=null && --depth[0]<=0)
+            {
+                DEPTH.remove();
+            }
+        }
+    }
+}
@@ -0,0 +1,200 @@
+/*******************************************************************************
+ *    
+ *                           FRAMEWORK Lixbox
+ *                          ==================
+ *      
+ * This file is part of lixbox-orm.
+ *
+ *    lixbox-orm is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    lixbox-orm is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *    along with lixbox-orm.  If not, see <https://www.gnu.org/licenses/>
+ *   
+ *   @AUTHOR Lixbox-team
+ *
+ ******************************************************************************/
+package fr.lixbox.orm.redis.client;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Cette classe decrit le type cible d'une requete de projection: une
+ * interface dont les getters portent les noms des champs d'index, ou
+ * une classe dont les proprietes les portent. Une interface est
+ * implementee par un proxy, une classe est alimentee par jackson.
+ *
+ * Les metadonnees sont construites une seule fois par type.
+ *
+ * @author ludovic.terral
+ */
+public final class RedisProjection<P>
+{
+    // ----------- Attibuts -----------
+    private static final ClassValue<RedisProjection<?>> PROJECTIONS = new ClassValue<RedisProjection<?>>()
+    {
+        @Override
+        protected RedisProjection<?> computeValue(Class<?> type)
+        {
+            return new RedisProjection<>(type);
+        }
+    };
+
+    private final Class<P> type;
+    private final List<String> fields;
+    private final Map<Method, String> getters = new HashMap<>();
+
+
+
+    //----------- Methodes -----------
+    private RedisProjection(Class<P> type)
+    {
+        this.type = type;
+        Set<String> names = new LinkedHashSet<>();
+        if (type.isInterface())
+        {
+            for (Method method : type.getMethods())
+            {
+                String name = toPropertyName(method);
+                if (name!=null && !method.isDefault())
+                {
+                    names.add(name);
+                    getters.put(method, name);
+                }
+            }
+        }
+        else
+        {
+            for (Class<?> current = type; current!=null && current!=Object.class; current = current.getSuperclass())
+            {
+                for (Field field : current.getDeclaredFields())
+                {
+                    if (!Modifier.isStatic(field.getModifiers()) && !Modifier.isTransient(field.getModifiers()))
+                    {
+                        names.add(field.getName());
+                    }
+                }
+            }
+        }
+        if (names.isEmpty())
+        {
+            throw new IllegalArgumentException(type.getName()+" declares no projected property");
+        }
+        this.fields = Collections.unmodifiableList(new ArrayList<>(names));
+    }
+
+
+
+    @SuppressWarnings("unchecked")
+    public static <P> RedisProjection<P> of(Class<P> type)
+    {
+        return (RedisProjection<P>) PROJECTIONS.get(type);
+    }
+
+
+
+    /**
+     * @return les champs d'index a renvoyer par la requete.
+     */
+    public List<String> getFields()
+    {
+        return fields;
+    }
+
+
+
+    /**
+     * Cette methode convertit une ligne de resultat dans le type de la
+     * projection.
+     *
+     * @param row valeurs par nom de champ
+     * @param mapper
+     *
+     * @return la projection.
+     */
+    public P map(Map<String, String> row, RedisEntityMapper mapper)
+    {
+        if (!type.isInterface())
+        {
+            return mapper.convert(row, type);
+        }
+        Map<String, Object> values = new HashMap<>();
+        for (Map.Entry<Method, String> getter : getters.entrySet())
+        {
+            values.put(getter.getValue(), convert(row.get(getter.getValue()), getter.getKey().getReturnType(), mapper));
+        }
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] {type}, (proxy, method, args) -> 
+        {
+            String name = getters.get(method);
+            if (name!=null)
+            {
+                return values.get(name);
+            }
+            switch (method.getName())
+            {
+                case "toString":
+                    return type.getSimpleName()+" "+row;
+                case "hashCode":
+                    return row.hashCode();
+                case "equals":
+                    return proxy==args[0];
+                default:
+                    throw new UnsupportedOperationException(method.getName());
+            }
+        }));
+    }
+
+
+
+    private static Object convert(String value, Class<?> returnType, RedisEntityMapper mapper)
+    {
+        if (value==null || value.isEmpty() && returnType!=String.class)
+        {
+            return returnType.isPrimitive()?Array.get(Array.newInstance(returnType, 1), 0):null;
+        }
+        if (returnType==String.class)
+        {
+            return value;
+        }
+        return mapper.convert(value, returnType);
+    }
+
+
+
+    private static String toPropertyName(Method method)
+    {
+        String name = method.getName();
+        int prefix = 0;
+        if (name.startsWith("get") && name.length()>3)
+        {
+            prefix = 3;
+        }
+        else if (name.startsWith("is") && name.length()>2)
+        {
+            prefix = 2;
+        }
+        if (prefix==0 || method.getParameterCount()>0 || method.getReturnType()==void.class)
+        {
+            return null;
+        }
+        return Character.toLowerCase(name.charAt(prefix))+name.substring(prefix+1);
+    }
+}
@@ -0,0 +1,273 @@
+/*******************************************************************************
+ *    
+ *                           FRAMEWORK Lixbox
+ *                          ==================
+ *      
+ * This file is part of lixbox-orm.
+ *
+ *    lixbox-orm is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    lixbox-orm is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *    along with lixbox-orm.  If not, see <https://www.gnu.org/licenses/>
+ *   
+ *   @AUTHOR Lixbox-team
+ *
+ ******************************************************************************/
+package fr.lixbox.orm.redis.client;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
+
+import fr.lixbox.orm.redis.model.RedisReplicaSelection;
+import redis.clients.jedis.Connection;
+import redis.clients.jedis.HostAndPort;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisClientConfig;
+import redis.clients.jedis.JedisPooled;
+import redis.clients.jedis.UnifiedJedis;
+import redis.clients.jedis.exceptions.JedisAccessControlException;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+import redis.clients.jedis.exceptions.JedisException;
+
+/**
+ * Ce routeur envoie les lectures sur les replicas du primaire. Un replica
+ * injoignable ou qui refuse l'authentification est ecarte quelques secondes et la lecture est rejouee sur
+ * le primaire. Les replicas sont alimentes en asynchrone, une lecture
+ * peut donc renvoyer une valeur anterieure a la derniere ecriture.
+ *
+ * @author ludovic.terral
+ */
+public class RedisReplicaRouter implements AutoCloseable
+{
+    // ----------- Attibuts -----------
+    private static final Log LOG = LogFactory.getLog(RedisReplicaRouter.class);
+    private static final long DOWN_DELAY = 5000;
+    private static final double LATENCY_WEIGHT = 0.2;
+    private static final int PROBE_PERIOD = 16;
+    private static final String[] DOWN_FLAGS = {"s_down", "o_down", "disconnected"};
+
+    private final List<Replica> replicas = new ArrayList<>();
+    private final RedisReplicaSelection selection;
+    private final AtomicInteger next = new AtomicInteger();
+
+
+
+    //----------- Methodes -----------
+    /**
+     * @param poolConfig configuration du pool de chaque replica
+     * @param clientConfig identifiants et TLS du primaire, repris par les replicas
+     * @param nodes adresses des replicas
+     * @param selection strategie de choix du replica
+     */
+    public RedisReplicaRouter(GenericObjectPoolConfig<Connection> poolConfig, JedisClientConfig clientConfig, Collection<HostAndPort> nodes, RedisReplicaSelection selection)
+    {
+        this.selection = selection!=null?selection:RedisReplicaSelection.ROUND_ROBIN;
+        for (HostAndPort node : nodes)
+        {
+            replicas.add(new Replica(node, new JedisPooled(poolConfig, node, clientConfig)));
+        }
+    }
+
+
+
+    /**
+     * Cette methode interroge les sentinelles pour connaitre les replicas
+     * sains d'un primaire. La premiere sentinelle joignable fait foi.
+     *
+     * @param sentinels
+     * @param masterName nom du primaire surveille par les sentinelles
+     *
+     * @return les adresses des replicas.
+     */
+    public static List<HostAndPort> discoverReplicas(Collection<HostAndPort> sentinels, String masterName)
+    {
+        for (HostAndPort sentinel : sentinels)
+        {
+            try (Jedis jedis = new Jedis(sentinel))
+            {
+                List<HostAndPort> result = new ArrayList<>();
+                for (Map<String, String> replica : jedis.sentinelReplicas(masterName))
+                {
+                    if (!isDown(replica.get("flags")))
+                    {
+                        result.add(new HostAndPort(replica.get("ip"), Integer.parseInt(replica.get("port"))));
+                    }
+                }
+                return result;
+            }
+            catch (JedisException je)
+            {
+                LOG.warn("Sentinel "+sentinel+" unavailable: "+je.getMessage());
+            }
+        }
+        throw new IllegalStateException("No sentinel available for master "+masterName);
+    }
+
+
+
+    /**
+     * Cette methode execute une lecture sur un replica, ou sur le primaire
+     * si aucun replica n'est disponible.
+     *
+     * @param operation
+     * @param primary
+     *
+     * @return le resultat de la lecture.
+     */
+    public <R> R read(Function<UnifiedJedis, R> operation, UnifiedJedis primary)
+    {
+        Replica replica = select();
+        if (replica==null)
+        {
+            return operation.apply(primary);
+        }
+        long start = System.nanoTime();
+        try
+        {
+            R result = operation.apply(replica.client);
+            replica.record(System.nanoTime()-start);
+            return result;
+        }
+        catch (JedisConnectionException | JedisAccessControlException je)
+        {
+            LOG.warn("Replica "+replica.address+" unavailable, reading from the primary: "+je.getMessage());
+            replica.markDown();
+            return operation.apply(primary);
+        }
+    }
+
+
+
+    public List<HostAndPort> getReplicas()
+    {
+        List<HostAndPort> result = new ArrayList<>();
+        for (Replica replica : replicas)
+        {
+            result.add(replica.address);
+        }
+        return Collections.unmodifiableList(result);
+    }
+
+
+
+    @Override
+    public void close()
+    {
+        for (Replica replica : replicas)
+        {
+            replica.client.close();
+        }
+    }
+
+
+
+    /**
+     * En LEAST_LATENCY, une lecture sur PROBE_PERIOD part en tourniquet
+     * pour remesurer les replicas qui ne sont plus choisis, sans quoi
+     * leur latence ne serait jamais mise a jour.
+     */
+    private Replica select()
+    {
+        long now = System.currentTimeMillis();
+        Replica result = null;
+        if (RedisReplicaSelection.LEAST_LATENCY.equals(selection) && Math.floorMod(next.getAndIncrement(), PROBE_PERIOD)!=0)
+        {
+            for (Replica replica : replicas)
+            {
+                if (replica.isAvailable(now) && (result==null || replica.latency<result.latency))
+                {
+                    result = replica;
+                }
+            }
+        }
+        if (result==null)
+        {
+            for (int ix=0; ix<replicas.size() && result==null; ix++)
+            {
+                Replica replica = replicas.get(Math.floorMod(next.getAndIncrement(), replicas.size()));
+                if (replica.isAvailable(now))
+                {
+                    result = replica;
+                }
+            }
+        }
+        return result;
+    }
+
+
+
+    private static boolean isDown(String flags)
+    {
+        if (flags!=null)
+        {
+            for (String flag : DOWN_FLAGS)
+            {
+                if (flags.contains(flag))
+                {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+
+
+    private static class Replica
+    {
+        private final HostAndPort address;
+        private final JedisPooled client;
+        private volatile long latency = 0;
+        private volatile long downUntil = 0;
+
+
+
+        Replica(HostAndPort address, JedisPooled client)
+        {
+            this.address = address;
+            this.client = client;
+        }
+
+
+
+        boolean isAvailable(long now)
+        {
+            return downUntil<=now;
+        }
+
+
+
+        /**
+         * Moyenne mobile exponentielle de la duree des lectures en ns.
+         */
+        void record(long duration)
+        {
+            long current = latency;
+            latency = current==0?duration:(long) (current*(1-LATENCY_WEIGHT)+duration*LATENCY_WEIGHT);
+        }
+
+
+
+        void markDown()
+        {
+            downUntil = System.currentTimeMillis()+DOWN_DELAY;
+        }
+    }
+}
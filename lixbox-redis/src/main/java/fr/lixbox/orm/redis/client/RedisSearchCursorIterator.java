@@ -0,0 +1,142 @@
+/*******************************************************************************
+ *    
+ *                           FRAMEWORK Lixbox
+ *                          ==================
+ *      
+ * This file is part of lixbox-orm.
+ *
+ *    lixbox-orm is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    lixbox-orm is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *    along with lixbox-orm.  If not, see <https://www.gnu.org/licenses/>
+ *   
+ *   @AUTHOR Lixbox-team
+ *
+ ******************************************************************************/
+package fr.lixbox.orm.redis.client;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.function.Function;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import redis.clients.jedis.UnifiedJedis;
+import redis.clients.jedis.exceptions.JedisException;
+import redis.clients.jedis.search.aggr.AggregationBuilder;
+import redis.clients.jedis.search.aggr.AggregationResult;
+
+/**
+ * Cet iterateur parcourt le resultat d'une requete par curseur
+ * FT.AGGREGATE ... WITHCURSOR. Seule la page courante est chargee en
+ * memoire, le curseur serveur est libere a la fermeture.
+ *
+ * @author ludovic.terral
+ */
+public class RedisSearchCursorIterator<T> implements Iterator<T>, AutoCloseable
+{
+    // ----------- Attibuts -----------
+    private static final Log LOG = LogFactory.getLog(RedisSearchCursorIterator.class);
+
+    private final UnifiedJedis redisClient;
+    private final String indexName;
+    private final int pageSize;
+    private final Function<List<Map<String, Object>>, List<T>> pageConverter;
+    private final AggregationBuilder aggregation;
+    private long cursorId = 0;
+    private boolean started = false;
+    private boolean closed = false;
+    private Iterator<T> page = Collections.emptyIterator();
+
+
+
+    //----------- Methodes -----------
+    /**
+     * @param redisClient
+     * @param indexName
+     * @param aggregation la requete, sans la clause de curseur
+     * @param pageSize nombre de documents lus par aller-retour
+     * @param maxIdle duree de vie du curseur serveur inactif en ms
+     * @param pageConverter conversion d'une page de lignes en entites
+     */
+    public RedisSearchCursorIterator(UnifiedJedis redisClient, String indexName, AggregationBuilder aggregation,
+            int pageSize, long maxIdle, Function<List<Map<String, Object>>, List<T>> pageConverter)
+    {
+        this.redisClient = redisClient;
+        this.indexName = indexName;
+        this.pageSize = pageSize;
+        this.pageConverter = pageConverter;
+        this.aggregation = aggregation.cursor(pageSize, maxIdle);
+    }
+
+
+
+    @Override
+    public boolean hasNext()
+    {
+        while (!page.hasNext() && !closed && (!started || cursorId!=0))
+        {
+            AggregationResult result;
+            if (!started)
+            {
+                result = redisClient.ftAggregate(indexName, aggregation);
+                started = true;
+            }
+            else
+            {
+                result = redisClient.ftCursorRead(indexName, cursorId, pageSize);
+            }
+            cursorId = result.getCursorId();
+            page = pageConverter.apply(result.getResults()).iterator();
+        }
+        return page.hasNext();
+    }
+
+
+
+    @Override
+    public T next()
+    {
+        if (!hasNext())
+        {
+            throw new NoSuchElementException();
+        }
+        return page.next();
+    }
+
+
+
+    @Override
+    public void close()
+    {
+        if (!closed)
+        {
+            closed = true;
+            page = Collections.emptyIterator();
+            if (cursorId!=0)
+            {
+                try
+                {
+                    redisClient.ftCursorDel(indexName, cursorId);
+                }
+                catch (JedisException je)
+                {
+                    LOG.debug("Unable to release cursor "+cursorId+": "+je.getMessage());
+                }
+                cursorId = 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/*******************************************************************************
+ *    
+ *                           FRAMEWORK Lixbox
+ *                          ==================
+ *      
+ * This file is part of lixbox-orm.
+ *
+ *    lixbox-orm is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    lixbox-orm is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *    along with lixbox-orm.  If not, see <https://www.gnu.org/licenses/>
+ *   
+ *   @AUTHOR Lixbox-team
+ *
+ ******************************************************************************/
+package fr.lixbox.orm.redis.client;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+
+import redis.clients.jedis.search.SearchResult;
+
+/**
+ * Cet iterateur parcourt le resultat d'une requete par pages
+ * FT.SEARCH ... LIMIT successives. Il sert aux requetes qu'une agregation
+ * ne peut pas porter (filtres, tri, parametres, dialecte). Seule la page
+ * courante est chargee en memoire.
+ *
+ * Les pages sont lues par decalage: sans tri, des ecritures concurrentes
+ * peuvent deplacer des entites d'une page a l'autre.
+ *
+ * @author ludovic.terral
+ */
+public class RedisSearchPageIterator<T> implements Iterator<T>
+{
+    // ----------- Attibuts -----------
+    private final int pageSize;
+    private final IntFunction<SearchResult> pageReader;
+    private final Function<SearchResult, List<T>> pageConverter;
+    private int offset = 0;
+    private boolean finished = false;
+    private Iterator<T> page = Collections.emptyIterator();
+
+
+
+    //----------- Methodes -----------
+    /**
+     * @param pageSize nombre de documents lus par aller-retour
+     * @param pageReader lecture de la page commencant au decalage fourni
+     * @param pageConverter conversion d'une page en entites
+     */
+    public RedisSearchPageIterator(int pageSize, IntFunction<SearchResult> pageReader, 
+            Function<SearchResult, List<T>> pageConverter)
+    {
+        this.pageSize = pageSize;
+        this.pageReader = pageReader;
+        this.pageConverter = pageConverter;
+    }
+
+
+
+    @Override
+    public boolean hasNext()
+    {
+        while (!page.hasNext() && !finished)
+        {
+            SearchResult result = pageReader.apply(offset);
+            int read = result.getDocuments().size();
+            offset += read;
+            finished = read<pageSize || offset>=result.getTotalResults();
+            page = pageConverter.apply(result).iterator();
+        }
+        return page.hasNext();
+    }
+
+
+
+    @Override
+    public T next()
+    {
+        if (!hasNext())
+        {
+            throw new NoSuchElementException();
+        }
+        return page.next();
+    }
+}
@@ -0,0 +1,111 @@
+/*******************************************************************************
+ *    
+ *                           FRAMEWORK Lixbox
+ *                          ==================
+ *      
+ * This file is part of lixbox-orm.
+ *
+ *    lixbox-orm is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    lixbox-orm is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *    along with lixbox-orm.  If not, see <https://www.gnu.org/licenses/>
+ *   
+ *   @AUTHOR Lixbox-team
+ *
+ ******************************************************************************/
+package fr.lixbox.orm.redis.codec;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+import fr.lixbox.orm.redis.client.RedisEntityMapper;
+
+/**
+ * Cette classe est la base des formats s'appuyant sur jackson. Les
+ * valeurs sont ecrites et lues directement dans le format du codec, par
+ * un mapper configure comme celui de lixbox-json (voir
+ * {@link RedisEntityMapper#createObjectMapper(JsonFactory)}): aucun json
+ * texte intermediaire n'est produit. Les lecteurs et ecrivains sont
+ * prepares une seule fois par classe.
+ *
+ * @author ludovic.terral
+ */
+public abstract class AbstractJacksonValueCodec implements RedisValueCodec
+{
+    // ----------- Attibuts -----------
+    private static final long serialVersionUID = 202210170010L;
+
+    private transient volatile ObjectMapper mapper;
+    private transient ConcurrentMap<Class<?>, ObjectReader> readers;
+    private transient ConcurrentMap<Class<?>, ObjectWriter> writers;
+
+
+
+    //----------- Methodes -----------
+    protected abstract JsonFactory createFactory();
+
+
+
+    @Override
+    public void encode(Object value, OutputStream output) throws IOException
+    {
+        getWriter(value.getClass()).writeValue(output, value);
+    }
+
+
+
+    @Override
+    public <T> T decode(byte[] data, int offset, int length, Class<T> type) throws IOException
+    {
+        return getReader(type).readValue(data, offset, length);
+    }
+
+
+
+    private synchronized void init()
+    {
+        if (mapper==null)
+        {
+            readers = new ConcurrentHashMap<>();
+            writers = new ConcurrentHashMap<>();
+            mapper = RedisEntityMapper.createObjectMapper(createFactory());
+        }
+    }
+
+
+
+    private ObjectReader getReader(Class<?> type)
+    {
+        if (mapper==null)
+        {
+            init();
+        }
+        return readers.computeIfAbsent(type, mapper::readerFor);
+    }
+
+
+
+    private ObjectWriter getWriter(Class<?> type)
+    {
+        if (mapper==null)
+        {
+            init();
+        }
+        return writers.computeIfAbsent(type, mapper::writerFor);
+    }
+}
@@ -0,0 +1,132 @@
+/*******************************************************************************
+ *    
+ *                           FRAMEWORK Lixbox
+ *                          ==================
+ *      
+ * This file is part of lixbox-orm.
+ *
+ *    lixbox-orm is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    lixbox-orm is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *    along with lixbox-orm.  If not, see <https://www.gnu.org/licenses/>
+ *   
+ *   @AUTHOR Lixbox-team
+ *
+ ******************************************************************************/
+package fr.lixbox.orm.redis.codec;
+
+import java.io.Serializable;
+
+/**
+ * Cette classe est une photographie de l'activite de compression des
+ * valeurs. Les durees sont des temps CPU en nanosecondes.
+ *
+ * @author ludovic.terral
+ */
+public class RedisCompressionStatistics implements Serializable
+{
+    // ----------- Attibuts -----------
+    private static final long serialVersionUID = 202210170011L;
+
+    private long compressedValues;
+    private long uncompressedBytes;
+    private long compressedBytes;
+    private long compressionNanos;
+    private long decompressedValues;
+    private long decompressionNanos;
+
+
+
+    //----------- Methodes -----------
+    public long getCompressedValues()
+    {
+        return compressedValues;
+    }
+    public void setCompressedValues(long compressedValues)
+    {
+        this.compressedValues = compressedValues;
+    }
+
+
+
+    public long getUncompressedBytes()
+    {
+        return uncompressedBytes;
+    }
+    public void setUncompressedBytes(long uncompressedBytes)
+    {
+        this.uncompressedBytes = uncompressedBytes;
+    }
+
+
+
+    public long getCompressedBytes()
+    {
+        return compressedBytes;
+    }
+    public void setCompressedBytes(long compressedBytes)
+    {
+        this.compressedBytes = compressedBytes;
+    }
+
+
+
+    public long getCompressionNanos()
+    {
+        return compressionNanos;
+    }
+    public void setCompressionNanos(long compressionNanos)
+    {
+        this.compressionNanos = compressionNanos;
+    }
+
+
+
+    public long getDecompressedValues()
+    {
+        return decompressedValues;
+    }
+    public void setDecompressedValues(long decompressedValues)
+    {
+        this.decompressedValues = decompressedValues;
+    }
+
+
+
+    public long getDecompressionNanos()
+    {
+        return decompressionNanos;
+    }
+    public void setDecompressionNanos(long decompressionNanos)
+    {
+        this.decompressionNanos = decompressionNanos;
+    }
+
+
+
+    /**
+     * @return le rapport taille compressee sur taille d'origine.
+     */
+    public double getCompressionRatio()
+    {
+        return uncompressedBytes>0?(double) compressedBytes/uncompressedBytes:1;
+    }
+
+
+
+    @Override
+    public String toString()
+    {
+        return "RedisCompressionStatistics [compressedValues=" + compressedValues + ", uncompressedBytes=" + uncompressedBytes + 
+                ", compressedBytes=" + compressedBytes + ", compressionNanos=" + compressionNanos + 
+                ", decompressedValues=" + decompressedValues + ", decompressionNanos=" + decompressionNanos + "]";
+    }
+}
@@ -0,0 +1,54 @@
+/*******************************************************************************
+ *    
+ *                           FRAMEWORK Lixbox
+ *                          ==================
+ *      
+ * This file is part of lixbox-orm.
+ *
+ *    lixbox-orm is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    lixbox-orm is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *    along with lixbox-orm.  If not, see <https://www.gnu.org/licenses/>
+ *   
+ *   @AUTHOR Lixbox-team
+ *
+ ******************************************************************************/
+package fr.lixbox.orm.redis.codec;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Serializable;
+
+/**
+ * Cette interface definit le format de serialisation du corps des
+ * entites stockees par le client.
+ *
+ * Chaque format porte un identifiant ecrit dans l'entete des valeurs
+ * afin de relire des donnees de formats differents pendant une
+ * migration. Les identifiants 1 a 15 sont reserves au framework.
+ *
+ * @author ludovic.terral
+ */
+public interface RedisValueCodec extends Serializable
+{
+    /**
+     * @return l'identifiant du format ecrit dans l'entete.
+     */
+    byte getFormatId();
+
+
+
+    void encode(Object value, OutputStream output) throws IOException;
+
+
+
+    <T> T decode(byte[] data, int offset, int length, Class<T> type) throws IOException;
+}
@@ -0,0 +1,167 @@
+/*******************************************************************************
+ *    
+ *                           FRAMEWORK Lixbox
+ *                          ==================
+ *      
+ * This file is part of lixbox-orm.
+ *
+ *    lixbox-orm is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    lixbox-orm is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *    along with lixbox-orm.  If not, see <https://www.gnu.org/licenses/>
+ *   
+ *   @AUTHOR Lixbox-team
+ *
+ ******************************************************************************/
+package fr.lixbox.orm.redis.codec;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Cette classe ecrit et relit les valeurs avec leur entete de format.
+ *
+ * Une valeur binaire commence par l'octet {@link #MAGIC}, qui ne peut
+ * pas debuter un texte UTF-8, suivi de l'identifiant du format. Une
+ * valeur sans entete est du json texte.
+ *
+ * @author ludovic.terral
+ */
+public final class RedisValueCodecs
+{
+    // ----------- Attibuts -----------
+    public static final byte MAGIC = (byte) 0xFE;
+    public static final int HEADER_LENGTH = 2;
+    private static final int INITIAL_BUFFER_SIZE = 512;
+
+    private static final RedisValueCodec JSON = new JsonValueCodec();
+    private static final ConcurrentMap<Byte, RedisValueCodec> BUILTIN_CODECS = new ConcurrentHashMap<>();
+
+
+
+    //----------- Methodes -----------
+    private RedisValueCodecs()
+    {
+        //singleton
+    }
+
+
+
+    public static RedisValueCodec json()
+    {
+        return JSON;
+    }
+
+
+
+    public static byte[] encode(RedisValueCodec codec, Object value)
+    {
+        if (value==null)
+        {
+            return null;
+        }
+        RedisValueCodec writer = codec!=null?codec:JSON;
+        ByteArrayOutputStream output = new ByteArrayOutputStream(INITIAL_BUFFER_SIZE);
+        if (writer.getFormatId()!=JsonValueCodec.FORMAT_ID)
+        {
+            output.write(MAGIC);
+            output.write(writer.getFormatId());
+        }
+        try
+        {
+            writer.encode(value, output);
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+        return output.toByteArray();
+    }
+
+
+
+    public static <T> T decode(byte[] data, Class<T> type)
+    {
+        return decode(data, type, null);
+    }
+
+
+
+    /**
+     * Cette methode relit une valeur quel que soit son format. Le format
+     * fourni, propre au client, est prioritaire sur les formats du
+     * framework pour son identifiant : aucun format n'est enregistre
+     * globalement.
+     *
+     * @param data
+     * @param type
+     * @param codec format d'ecriture du client, peut etre null
+     *
+     * @return la valeur, null si vide.
+     */
+    public static <T> T decode(byte[] data, Class<T> type, RedisValueCodec codec)
+    {
+        if (data==null || data.length==0 || type==null)
+        {
+            return null;
+        }
+        try
+        {
+            if (hasHeader(data))
+            {
+                RedisValueCodec reader = codec!=null && codec.getFormatId()==data[1]?codec:getCodec(data[1]);
+                return reader.decode(data, HEADER_LENGTH, data.length-HEADER_LENGTH, type);
+            }
+            return JSON.decode(data, 0, data.length, type);
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+
+
+    public static boolean hasHeader(byte[] data)
+    {
+        return data!=null && data.length>=HEADER_LENGTH && data[0]==MAGIC;
+    }
+
+
+
+    private static RedisValueCodec getCodec(byte formatId)
+    {
+        RedisValueCodec result = BUILTIN_CODECS.get(formatId);
+        if (result==null)
+        {
+            switch (formatId)
+            {
+                case JsonValueCodec.FORMAT_ID:
+                    result = JSON;
+                    break;
+                case SmileValueCodec.FORMAT_ID:
+                    result = new SmileValueCodec();
+                    break;
+                case CborValueCodec.FORMAT_ID:
+                    result = new CborValueCodec();
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown value format "+formatId);
+            }
+            RedisValueCodec previous = BUILTIN_CODECS.putIfAbsent(formatId, result);
+            result = previous!=null?previous:result;
+        }
+        return result;
+    }
+}
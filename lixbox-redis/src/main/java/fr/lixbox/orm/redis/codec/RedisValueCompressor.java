@@ -0,0 +1,195 @@
+/*******************************************************************************
+ *    
+ *                           FRAMEWORK Lixbox
+ *                          ==================
+ *      
+ * This file is part of lixbox-orm.
+ *
+ *    lixbox-orm is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    lixbox-orm is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *    along with lixbox-orm.  If not, see <https://www.gnu.org/licenses/>
+ *   
+ *   @AUTHOR Lixbox-team
+ *
+ ******************************************************************************/
+package fr.lixbox.orm.redis.codec;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Cette classe compresse les valeurs au dela d'un seuil de taille.
+ *
+ * Une valeur compressee commence par l'octet {@link #MAGIC}, qui ne peut
+ * pas debuter un texte UTF-8, suivi de l'algorithme et de la taille
+ * d'origine sur 4 octets. Les autres valeurs sont renvoyees telles
+ * quelles, la decompression est donc transparente pour les valeurs
+ * ecrites sans compression.
+ *
+ * @author ludovic.terral
+ */
+public class RedisValueCompressor
+{
+    // ----------- Attibuts -----------
+    public static final byte MAGIC = (byte) 0xFD;
+    public static final byte DEFLATE = 1;
+    public static final int HEADER_LENGTH = 6;
+    private static final int BUFFER_SIZE = 8192;
+    private static final ThreadMXBean THREAD_BEAN = ManagementFactory.getThreadMXBean();
+
+    private final LongAdder compressedValues = new LongAdder();
+    private final LongAdder uncompressedBytes = new LongAdder();
+    private final LongAdder compressedBytes = new LongAdder();
+    private final LongAdder compressionNanos = new LongAdder();
+    private final LongAdder decompressedValues = new LongAdder();
+    private final LongAdder decompressionNanos = new LongAdder();
+
+
+
+    //----------- Methodes -----------
+    /**
+     * Cette methode compresse une valeur si sa taille atteint le seuil
+     * et si la compression la reduit effectivement.
+     *
+     * @param data
+     * @param threshold taille minimale en octets, 0 ou moins pour ne jamais compresser
+     *
+     * @return la valeur compressee avec son entete, ou la valeur d'origine.
+     */
+    public byte[] compress(byte[] data, int threshold)
+    {
+        if (data==null || threshold<=0 || data.length<threshold)
+        {
+            return data;
+        }
+        long start = getCpuTime();
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        ByteArrayOutputStream output = new ByteArrayOutputStream(data.length/2+HEADER_LENGTH);
+        try
+        {
+            output.write(MAGIC);
+            output.write(DEFLATE);
+            output.write(ByteBuffer.allocate(Integer.BYTES).putInt(data.length).array(), 0, Integer.BYTES);
+            deflater.setInput(data);
+            deflater.finish();
+            byte[] buffer = new byte[BUFFER_SIZE];
+            while (!deflater.finished() && output.size()<data.length)
+            {
+                output.write(buffer, 0, deflater.deflate(buffer));
+            }
+        }
+        finally
+        {
+            deflater.end();
+            compressionNanos.add(getCpuTime()-start);
+        }
+        if (output.size()>=data.length)
+        {
+            return data;
+        }
+        compressedValues.increment();
+        uncompressedBytes.add(data.length);
+        compressedBytes.add(output.size());
+        return output.toByteArray();
+    }
+
+
+
+    /**
+     * Cette methode decompresse une valeur portant l'entete de compression.
+     *
+     * @param data
+     *
+     * @return la valeur decompressee, ou la valeur d'origine.
+     */
+    public byte[] decompress(byte[] data)
+    {
+        if (!isCompressed(data))
+        {
+            return data;
+        }
+        if (data[1]!=DEFLATE)
+        {
+            throw new IllegalStateException("Unknown compression algorithm "+data[1]);
+        }
+        long start = getCpuTime();
+        Inflater inflater = new Inflater();
+        try
+        {
+            byte[] result = new byte[ByteBuffer.wrap(data, 2, Integer.BYTES).getInt()];
+            inflater.setInput(data, HEADER_LENGTH, data.length-HEADER_LENGTH);
+            int length = 0;
+            while (length<result.length)
+            {
+                int count = inflater.inflate(result, length, result.length-length);
+                if (count==0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary()))
+                {
+                    break;
+                }
+                length += count;
+            }
+            if (length!=result.length)
+            {
+                throw new IllegalStateException("Corrupted compressed value");
+            }
+            decompressedValues.increment();
+            return result;
+        }
+        catch (DataFormatException e)
+        {
+            throw new IllegalStateException("Corrupted compressed value", e);
+        }
+        finally
+        {
+            inflater.end();
+            decompressionNanos.add(getCpuTime()-start);
+        }
+    }
+
+
+
+    public static boolean isCompressed(byte[] data)
+    {
+        return data!=null && data.length>=HEADER_LENGTH && data[0]==MAGIC;
+    }
+
+
+
+    public RedisCompressionStatistics getStatistics()
+    {
+        RedisCompressionStatistics result = new RedisCompressionStatistics();
+        result.setCompressedValues(compressedValues.sum());
+        result.setUncompressedBytes(uncompressedBytes.sum());
+        result.setCompressedBytes(compressedBytes.sum());
+        result.setCompressionNanos(compressionNanos.sum());
+        result.setDecompressedValues(decompressedValues.sum());
+        result.setDecompressionNanos(decompressionNanos.sum());
+        return result;
+    }
+
+
+
+    private static long getCpuTime()
+    {
+        if (THREAD_BEAN.isCurrentThreadCpuTimeSupported())
+        {
+            return THREAD_BEAN.getCurrentThreadCpuTime();
+        }
+        return System.nanoTime();
+    }
+}
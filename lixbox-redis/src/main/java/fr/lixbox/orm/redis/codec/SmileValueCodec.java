@@ -0,0 +1,56 @@
+/*******************************************************************************
+ *    
+ *                           FRAMEWORK Lixbox
+ *                          ==================
+ *      
+ * This file is part of lixbox-orm.
+ *
+ *    lixbox-orm is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    lixbox-orm is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *    along with lixbox-orm.  If not, see <https://www.gnu.org/licenses/>
+ *   
+ *   @AUTHOR Lixbox-team
+ *
+ ******************************************************************************/
+package fr.lixbox.orm.redis.codec;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+/**
+ * Ce format serialise les valeurs en Smile, json binaire de jackson.
+ *
+ * @author ludovic.terral
+ */
+public class SmileValueCodec extends AbstractJacksonValueCodec
+{
+    // ----------- Attibuts -----------
+    private static final long serialVersionUID = 202210170012L;
+    public static final byte FORMAT_ID = 2;
+
+
+
+    //----------- Methodes -----------
+    @Override
+    public byte getFormatId()
+    {
+        return FORMAT_ID;
+    }
+
+
+
+    @Override
+    protected JsonFactory createFactory()
+    {
+        return new SmileFactory();
+    }
+}
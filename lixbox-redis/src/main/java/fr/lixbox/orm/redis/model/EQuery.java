@@ -1,5 +1,10 @@
 package fr.lixbox.orm.redis.model;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import redis.clients.jedis.search.FieldName;
 import redis.clients.jedis.search.Query;
 
 /**
@@ -8,6 +13,8 @@ import redis.clients.jedis.search.Query;
 public class EQuery extends Query
 {
     private String _queryString = "*";
+    private final List<Consumer<EQuery>> _steps = new ArrayList<>();
+    private boolean _aggregable = true;
     
     
     public EQuery() 
@@ -28,6 +35,274 @@ public class EQuery extends Query
     
     
     
+    public String getQueryString()
+    {
+        return _queryString;
+    }
+    
+    
+    
+    /**
+     * Cette methode indique si la requete peut etre executee par
+     * FT.AGGREGATE: ni filtre, ni tri, ni parametre, ni dialecte, ni
+     * option de recherche que l'agregation ne sait pas transmettre.
+     * 
+     * @return true si seule la chaine de requete est utilisee.
+     */
+    public boolean isAggregable()
+    {
+        return _aggregable;
+    }
+    
+    
+    
+    /**
+     * Cette methode renvoie une copie independante de la requete, avec
+     * ses filtres, sa pagination, ses parametres et son dialecte. Les
+     * modifications de la copie ne touchent pas la requete d'origine.
+     * 
+     * @return la copie de la requete.
+     */
+    public EQuery copy()
+    {
+        EQuery result = new EQuery(_queryString);
+        result._steps.clear();
+        for (Consumer<EQuery> step : _steps)
+        {
+            step.accept(result);
+        }
+        return result;
+    }
+    
+    
+    
+    @Override
+    public EQuery limit(Integer offset, Integer limit)
+    {
+        _steps.add(query -> query.limit(offset, limit));
+        super.limit(offset, limit);
+        return this;
+    }
+    
+    
+    
+    @Override
+    public EQuery addFilter(Filter filter)
+    {
+        _aggregable = false;
+        _steps.add(query -> query.addFilter(filter));
+        super.addFilter(filter);
+        return this;
+    }
+    
+    
+    
+    @Override
+    public EQuery setPayload(byte[] payload)
+    {
+        _steps.add(query -> query.setPayload(payload));
+        super.setPayload(payload);
+        return this;
+    }
+    
+    
+    
+    @Override
+    public EQuery setVerbatim()
+    {
+        _aggregable = false;
+        _steps.add(EQuery::setVerbatim);
+        super.setVerbatim();
+        return this;
+    }
+    
+    
+    
+    @Override
+    public EQuery setNoContent()
+    {
+        _steps.add(EQuery::setNoContent);
+        super.setNoContent();
+        return this;
+    }
+    
+    
+    
+    @Override
+    public EQuery setNoStopwords()
+    {
+        _aggregable = false;
+        _steps.add(EQuery::setNoStopwords);
+        super.setNoStopwords();
+        return this;
+    }
+    
+    
+    
+    @Override
+    public EQuery setWithScores()
+    {
+        _steps.add(EQuery::setWithScores);
+        super.setWithScores();
+        return this;
+    }
+    
+    
+    
+    @Override
+    public EQuery setWithPayload()
+    {
+        _steps.add(EQuery::setWithPayload);
+        super.setWithPayload();
+        return this;
+    }
+    
+    
+    
+    @Override
+    public EQuery setLanguage(String language)
+    {
+        _aggregable = false;
+        _steps.add(query -> query.setLanguage(language));
+        super.setLanguage(language);
+        return this;
+    }
+    
+    
+    
+    @Override
+    public EQuery setScorer(String scorer)
+    {
+        _steps.add(query -> query.setScorer(scorer));
+        super.setScorer(scorer);
+        return this;
+    }
+    
+    
+    
+    @Override
+    public EQuery limitFields(String... fields)
+    {
+        _aggregable = false;
+        String[] values = fields.clone();
+        _steps.add(query -> query.limitFields(values));
+        super.limitFields(values);
+        return this;
+    }
+    
+    
+    
+    @Override
+    public EQuery limitKeys(String... keys)
+    {
+        _aggregable = false;
+        String[] values = keys.clone();
+        _steps.add(query -> query.limitKeys(values));
+        super.limitKeys(values);
+        return this;
+    }
+    
+    
+    
+    @Override
+    public EQuery returnFields(String... fields)
+    {
+        String[] values = fields.clone();
+        _steps.add(query -> query.returnFields(values));
+        super.returnFields(values);
+        return this;
+    }
+    
+    
+    
+    @Override
+    public EQuery returnFields(FieldName... fields)
+    {
+        FieldName[] values = fields.clone();
+        _steps.add(query -> query.returnFields(values));
+        super.returnFields(values);
+        return this;
+    }
+    
+    
+    
+    @Override
+    public EQuery highlightFields(HighlightTags tags, String... fields)
+    {
+        String[] values = fields.clone();
+        _steps.add(query -> query.highlightFields(tags, values));
+        super.highlightFields(tags, values);
+        return this;
+    }
+    
+    
+    
+    @Override
+    public EQuery highlightFields(String... fields)
+    {
+        String[] values = fields.clone();
+        _steps.add(query -> query.highlightFields(values));
+        super.highlightFields(values);
+        return this;
+    }
+    
+    
+    
+    @Override
+    public EQuery summarizeFields(int contextLen, int fragmentCount, String separator, String... fields)
+    {
+        String[] values = fields.clone();
+        _steps.add(query -> query.summarizeFields(contextLen, fragmentCount, separator, values));
+        super.summarizeFields(contextLen, fragmentCount, separator, values);
+        return this;
+    }
+    
+    
+    
+    @Override
+    public EQuery summarizeFields(String... fields)
+    {
+        String[] values = fields.clone();
+        _steps.add(query -> query.summarizeFields(values));
+        super.summarizeFields(values);
+        return this;
+    }
+    
+    
+    
+    @Override
+    public EQuery setSortBy(String field, boolean ascending)
+    {
+        _aggregable = false;
+        _steps.add(query -> query.setSortBy(field, ascending));
+        super.setSortBy(field, ascending);
+        return this;
+    }
+    
+    
+    
+    @Override
+    public EQuery addParam(String name, Object value)
+    {
+        _aggregable = false;
+        _steps.add(query -> query.addParam(name, value));
+        super.addParam(name, value);
+        return this;
+    }
+    
+    
+    
+    @Override
+    public EQuery dialect(int dialect)
+    {
+        _aggregable = false;
+        _steps.add(query -> query.dialect(dialect));
+        super.dialect(dialect);
+        return this;
+    }
+    
+    
+    
     @Override
     public String toString()
     {
@@ -0,0 +1,127 @@
+/*******************************************************************************
+ *    
+ *                           FRAMEWORK Lixbox
+ *                          ==================
+ *      
+ * This file is part of lixbox-orm.
+ *
+ *    lixbox-orm is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    lixbox-orm is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *    along with lixbox-orm.  If not, see <https://www.gnu.org/licenses/>
+ *   
+ *   @AUTHOR Lixbox-team
+ *
+ ******************************************************************************/
+package fr.lixbox.orm.redis.model;
+
+import java.io.Serializable;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import fr.lixbox.orm.redis.query.RedisSearchValueSanitizer;
+import redis.clients.jedis.util.SafeEncoder;
+
+/**
+ * Cette classe porte une ligne du resultat d'une agregation: les
+ * valeurs des champs groupes et des reducteurs, par alias. Les valeurs
+ * des champs groupes sont restituees sans l'echappement de l'index.
+ *
+ * @author ludovic.terral
+ */
+public class RedisAggregateRow implements Serializable
+{
+    // ----------- Attibuts -----------
+    private static final long serialVersionUID = 202210170023L;
+
+    private final Map<String, String> values;
+
+
+
+    //----------- Methodes -----------
+    public RedisAggregateRow(Map<String, Object> row)
+    {
+        this(row, Collections.emptySet());
+    }
+    /**
+     * @param row ligne brute de FT.AGGREGATE
+     * @param groupedFields champs groupes dont la valeur est echappee dans l'index
+     */
+    public RedisAggregateRow(Map<String, Object> row, Collection<String> groupedFields)
+    {
+        Map<String, String> decoded = new LinkedHashMap<>();
+        for (Entry<String, Object> entry : row.entrySet())
+        {
+            Object value = entry.getValue();
+            String text = value instanceof byte[]?SafeEncoder.encode((byte[]) value):(value!=null?value.toString():null);
+            decoded.put(entry.getKey(), groupedFields.contains(entry.getKey())?RedisSearchValueSanitizer.unescapeValue(text):text);
+        }
+        this.values = Collections.unmodifiableMap(decoded);
+    }
+
+
+
+    public boolean containsKey(String alias)
+    {
+        return values.containsKey(alias);
+    }
+
+
+
+    public String getString(String alias)
+    {
+        return values.get(alias);
+    }
+
+
+
+    /**
+     * @param alias
+     *
+     * @return la valeur entiere, 0 si elle est absente.
+     */
+    public long getLong(String alias)
+    {
+        String value = values.get(alias);
+        return value==null || value.isEmpty()?0:(long) Double.parseDouble(value);
+    }
+
+
+
+    /**
+     * @param alias
+     *
+     * @return la valeur decimale, 0 si elle est absente.
+     */
+    public double getDouble(String alias)
+    {
+        String value = values.get(alias);
+        return value==null || value.isEmpty()?0:Double.parseDouble(value);
+    }
+
+
+
+    public Map<String, String> getValues()
+    {
+        return values;
+    }
+
+
+
+    @Override
+    public String toString()
+    {
+        return "AggregateRow "+values;
+    }
+}
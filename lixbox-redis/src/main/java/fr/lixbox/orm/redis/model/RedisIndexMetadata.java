@@ -0,0 +1,402 @@
+/*******************************************************************************
+ *    
+ *                           FRAMEWORK Lixbox
+ *                          ==================
+ *      
+ * This file is part of lixbox-orm.
+ *
+ *    lixbox-orm is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    lixbox-orm is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *    along with lixbox-orm.  If not, see <https://www.gnu.org/licenses/>
+ *   
+ *   @AUTHOR Lixbox-team
+ *
+ ******************************************************************************/
+package fr.lixbox.orm.redis.model;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.AccessibleObject;
+import java.lang.reflect.Field;
+import java.lang.reflect.Member;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import fr.lixbox.orm.redis.query.RedisSearchValueSanitizer;
+import redis.clients.jedis.search.Schema;
+
+/**
+ * Cette classe porte les metadonnees d'index d'une classe annotee par
+ * {@link TextIndex}, {@link NumericIndex} et {@link TagIndex}. Elles sont
+ * construites une seule fois par classe: le schema est partage et les
+ * proprietes sont lues par des MethodHandle precompiles.
+ *
+ * @author ludovic.terral
+ */
+public final class RedisIndexMetadata
+{
+    // ----------- Attibuts -----------
+    private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+    private static final ClassValue<RedisIndexMetadata> METADATA = new ClassValue<RedisIndexMetadata>()
+    {
+        @Override
+        protected RedisIndexMetadata computeValue(Class<?> type)
+        {
+            return new RedisIndexMetadata(type);
+        }
+    };
+
+    private final Class<?> type;
+    private final Schema schema = new Schema();
+    private final List<IndexedProperty> properties;
+
+
+
+    //----------- Methodes -----------
+    private RedisIndexMetadata(Class<?> type)
+    {
+        this.type = type;
+        Map<String, IndexedProperty> byName = new LinkedHashMap<>();
+        Deque<Class<?>> hierarchy = new ArrayDeque<>();
+        for (Class<?> current = type; current!=null && current!=Object.class; current = current.getSuperclass())
+        {
+            hierarchy.push(current);
+        }
+        for (Class<?> current : hierarchy)
+        {
+            for (Field field : current.getDeclaredFields())
+            {
+                if (!Modifier.isStatic(field.getModifiers()))
+                {
+                    addProperty(byName, field, field.getName(), field.getType());
+                }
+            }
+            for (Method method : current.getDeclaredMethods())
+            {
+                if (!Modifier.isStatic(method.getModifiers()) && method.getParameterCount()==0 
+                        && method.getReturnType()!=void.class && !method.isBridge())
+                {
+                    addProperty(byName, method, toPropertyName(method.getName()), method.getReturnType());
+                }
+            }
+        }
+        for (IndexedProperty property : byName.values())
+        {
+            property.addTo(schema);
+        }
+        this.properties = Collections.unmodifiableList(new ArrayList<>(byName.values()));
+    }
+
+
+
+    /**
+     * @param type
+     *
+     * @return les metadonnees d'index de la classe.
+     */
+    public static RedisIndexMetadata of(Class<?> type)
+    {
+        return METADATA.get(type);
+    }
+
+
+
+    public boolean isAnnotated()
+    {
+        return !properties.isEmpty();
+    }
+
+
+
+    /**
+     * Cette methode renvoie le schema d'index de la classe. Il est partage
+     * entre tous les appelants et ne doit pas etre modifie.
+     *
+     * @return le schema.
+     */
+    public Schema getSchema()
+    {
+        checkAnnotated();
+        return schema;
+    }
+
+
+
+    /**
+     * Cette methode lit les valeurs indexees d'une entite. Les valeurs
+     * nulles sont ignorees, le client retire alors le champ de l'index.
+     *
+     * @param entity
+     *
+     * @return les valeurs par nom de champ d'index.
+     */
+    public Map<String, Object> getFieldValues(Object entity)
+    {
+        checkAnnotated();
+        Map<String, Object> result = new HashMap<>(properties.size()*4/3+1);
+        for (IndexedProperty property : properties)
+        {
+            Object value = property.read(entity);
+            if (value!=null)
+            {
+                result.put(property.name, property.converter.apply(value));
+            }
+        }
+        return result;
+    }
+
+
+
+    private void checkAnnotated()
+    {
+        if (properties.isEmpty())
+        {
+            throw new IllegalStateException(type.getName()+" has no indexed property, "+
+                    "annotate it or override getIndexSchema and getIndexFieldValues");
+        }
+    }
+
+
+
+    private static void addProperty(Map<String, IndexedProperty> byName, AccessibleObject member, String defaultName, 
+            Class<?> valueType)
+    {
+        TextIndex text = member.getAnnotation(TextIndex.class);
+        NumericIndex numeric = member.getAnnotation(NumericIndex.class);
+        TagIndex tag = member.getAnnotation(TagIndex.class);
+        IndexedProperty property = null;
+        if (text!=null)
+        {
+            String name = text.name().isEmpty()?defaultName:text.name();
+            property = new IndexedProperty(name, getter(member), RedisSearchValueSanitizer::sanitizeValue, 
+                    schema -> addTextField(schema, name, text.weight(), text.sortable()));
+        }
+        else if (numeric!=null)
+        {
+            String name = numeric.name().isEmpty()?defaultName:numeric.name();
+            checkNumeric(member, valueType);
+            property = new IndexedProperty(name, getter(member), RedisIndexMetadata::toNumber, 
+                    schema -> addNumericField(schema, name, numeric.sortable()));
+        }
+        else if (tag!=null)
+        {
+            String name = tag.name().isEmpty()?defaultName:tag.name();
+            property = new IndexedProperty(name, getter(member), value -> toTag(value, tag.separator()), 
+                    schema -> addTagField(schema, name, tag.separator(), tag.sortable()));
+        }
+        if (property!=null)
+        {
+            byName.put(property.name, property);
+        }
+    }
+
+
+
+    private static MethodHandle getter(AccessibleObject member)
+    {
+        try
+        {
+            Class<?> owner = ((Member) member).getDeclaringClass();
+            MethodHandles.Lookup lookup = MethodHandles.privateLookupIn(owner, MethodHandles.lookup());
+            MethodHandle result = member instanceof Field?lookup.unreflectGetter((Field) member):lookup.unreflect((Method) member);
+            return result.asType(GETTER_TYPE);
+        }
+        catch (IllegalAccessException e)
+        {
+            throw new IllegalStateException("Unable to access the indexed property "+member, e);
+        }
+    }
+
+
+
+    private static void checkNumeric(AccessibleObject member, Class<?> valueType)
+    {
+        boolean numeric = valueType.isPrimitive()?valueType!=boolean.class && valueType!=char.class:
+            Number.class.isAssignableFrom(valueType) || Calendar.class.isAssignableFrom(valueType) 
+            || Date.class.isAssignableFrom(valueType) || Instant.class.isAssignableFrom(valueType);
+        if (!numeric)
+        {
+            throw new IllegalStateException("The numeric indexed property "+member+" must be a number or a date");
+        }
+    }
+
+
+
+    private static Object toNumber(Object value)
+    {
+        if (value instanceof Calendar)
+        {
+            return ((Calendar) value).getTimeInMillis();
+        }
+        if (value instanceof Date)
+        {
+            return ((Date) value).getTime();
+        }
+        if (value instanceof Instant)
+        {
+            return ((Instant) value).toEpochMilli();
+        }
+        return value;
+    }
+
+
+
+    private static Object toTag(Object value, String separator)
+    {
+        Collection<?> values = null;
+        if (value instanceof Collection)
+        {
+            values = (Collection<?>) value;
+        }
+        else if (value instanceof Object[])
+        {
+            values = Arrays.asList((Object[]) value);
+        }
+        if (values==null)
+        {
+            return RedisSearchValueSanitizer.normalizeValue(value);
+        }
+        StringBuilder result = new StringBuilder();
+        for (Object item : values)
+        {
+            if (item!=null)
+            {
+                if (result.length()>0)
+                {
+                    result.append(separator);
+                }
+                result.append(RedisSearchValueSanitizer.normalizeValue(item));
+            }
+        }
+        return result.toString();
+    }
+
+
+
+    private static void addTextField(Schema schema, String name, double weight, boolean sortable)
+    {
+        if (sortable)
+        {
+            schema.addSortableTextField(name, weight);
+        }
+        else
+        {
+            schema.addTextField(name, weight);
+        }
+    }
+
+
+
+    private static void addNumericField(Schema schema, String name, boolean sortable)
+    {
+        if (sortable)
+        {
+            schema.addSortableNumericField(name);
+        }
+        else
+        {
+            schema.addNumericField(name);
+        }
+    }
+
+
+
+    private static void addTagField(Schema schema, String name, String separator, boolean sortable)
+    {
+        if (sortable)
+        {
+            schema.addSortableTagField(name, separator);
+        }
+        else
+        {
+            schema.addTagField(name, separator);
+        }
+    }
+
+
+
+    private static String toPropertyName(String methodName)
+    {
+        int prefix = 0;
+        if (methodName.startsWith("get") && methodName.length()>3)
+        {
+            prefix = 3;
+        }
+        else if (methodName.startsWith("is") && methodName.length()>2)
+        {
+            prefix = 2;
+        }
+        return Character.toLowerCase(methodName.charAt(prefix))+methodName.substring(prefix+1);
+    }
+
+
+
+    private static final class IndexedProperty
+    {
+        private final String name;
+        private final MethodHandle getter;
+        private final Function<Object, Object> converter;
+        private final Consumer<Schema> schemaField;
+
+
+
+        IndexedProperty(String name, MethodHandle getter, Function<Object, Object> converter, 
+                Consumer<Schema> schemaField)
+        {
+            this.name = name;
+            this.getter = getter;
+            this.converter = converter;
+            this.schemaField = schemaField;
+        }
+
+
+
+        void addTo(Schema schema)
+        {
+            schemaField.accept(schema);
+        }
+
+
+
+        Object read(Object entity)
+        {
+            try
+            {
+                return (Object) getter.invokeExact(entity);
+            }
+            catch (RuntimeException | Error e)
+            {
+                throw e;
+            }
+            catch (Throwable t)
+            {
+                throw new IllegalStateException("Unable to read the indexed property "+name, t);
+            }
+        }
+    }
+}
@@ -0,0 +1,96 @@
+/*******************************************************************************
+ *    
+ *                           FRAMEWORK Lixbox
+ *                          ==================
+ *      
+ * This file is part of lixbox-orm.
+ *
+ *    lixbox-orm is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    lixbox-orm is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *    along with lixbox-orm.  If not, see <https://www.gnu.org/licenses/>
+ *   
+ *   @AUTHOR Lixbox-team
+ *
+ ******************************************************************************/
+package fr.lixbox.orm.redis.model;
+
+import java.io.Serializable;
+
+/**
+ * Cette classe porte le resultat de l'enregistrement d'une entite
+ * lors d'un merge de masse.
+ *
+ * @author ludovic.terral
+ */
+public class RedisMergeOutcome<T extends RedisSearchDao> implements Serializable
+{
+    // ----------- Attibuts -----------
+    private static final long serialVersionUID = 202210170002L;
+
+    private final T entity;
+    private final boolean merged;
+    private final String errorMessage;
+
+
+
+    //----------- Methodes -----------
+    private RedisMergeOutcome(T entity, boolean merged, String errorMessage)
+    {
+        this.entity = entity;
+        this.merged = merged;
+        this.errorMessage = errorMessage;
+    }
+
+
+
+    public static <T extends RedisSearchDao> RedisMergeOutcome<T> success(T entity)
+    {
+        return new RedisMergeOutcome<>(entity, true, null);
+    }
+
+
+
+    public static <T extends RedisSearchDao> RedisMergeOutcome<T> failure(T entity, String errorMessage)
+    {
+        return new RedisMergeOutcome<>(entity, false, errorMessage);
+    }
+
+
+
+    public T getEntity()
+    {
+        return entity;
+    }
+
+
+
+    public boolean isMerged()
+    {
+        return merged;
+    }
+
+
+
+    public String getErrorMessage()
+    {
+        return errorMessage;
+    }
+
+
+
+    @Override
+    public String toString()
+    {
+        return "RedisMergeOutcome [entity=" + (entity!=null?entity.getOid():null) + ", merged=" + merged +
+                ", errorMessage=" + errorMessage + "]";
+    }
+}
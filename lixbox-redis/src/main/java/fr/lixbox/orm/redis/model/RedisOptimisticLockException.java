@@ -0,0 +1,72 @@
+/*******************************************************************************
+ *    
+ *                           FRAMEWORK Lixbox
+ *                          ==================
+ *      
+ * This file is part of lixbox-orm.
+ *
+ *    lixbox-orm is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    lixbox-orm is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *    along with lixbox-orm.  If not, see <https://www.gnu.org/licenses/>
+ *   
+ *   @AUTHOR Lixbox-team
+ *
+ ******************************************************************************/
+package fr.lixbox.orm.redis.model;
+
+import java.util.Calendar;
+
+import fr.lixbox.common.exceptions.BusinessException;
+
+/**
+ * Cette exception signale qu'une entite versionnee a ete modifiee ou
+ * supprimee depuis sa lecture. L'appelant doit la relire avant de
+ * retenter son enregistrement.
+ *
+ * @author ludovic.terral
+ */
+public class RedisOptimisticLockException extends BusinessException
+{
+    // ----------- Attibuts -----------
+    private static final long serialVersionUID = 202210170016L;
+
+    private final String key;
+    private final Calendar expectedVersion;
+
+
+
+    //----------- Methodes -----------
+    public RedisOptimisticLockException(String key, Calendar expectedVersion)
+    {
+        super("Optimistic lock conflict on "+key+" with version "+
+                (expectedVersion!=null?Long.toString(expectedVersion.getTimeInMillis()):"none"));
+        this.key = key;
+        this.expectedVersion = expectedVersion;
+    }
+
+
+
+    public String getKey()
+    {
+        return key;
+    }
+
+
+
+    /**
+     * @return la version lue par l'appelant, null pour une nouvelle entite.
+     */
+    public Calendar getExpectedVersion()
+    {
+        return expectedVersion;
+    }
+}
@@ -0,0 +1,44 @@
+/*******************************************************************************
+ *    
+ *                           FRAMEWORK Lixbox
+ *                          ==================
+ *      
+ * This file is part of lixbox-orm.
+ *
+ *    lixbox-orm is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    lixbox-orm is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *    along with lixbox-orm.  If not, see <https://www.gnu.org/licenses/>
+ *   
+ *   @AUTHOR Lixbox-team
+ *
+ ******************************************************************************/
+package fr.lixbox.orm.redis.model;
+
+/**
+ * Cette enumeration liste les strategies de choix du replica qui sert
+ * une lecture.
+ * 
+ * @author ludovic.terral
+ */
+public enum RedisReplicaSelection
+{
+    /**
+     * Les replicas sont sollicites a tour de role.
+     */
+    ROUND_ROBIN, 
+    
+    /**
+     * Le replica dont la latence moyenne observee est la plus faible
+     * est sollicite.
+     */
+    LEAST_LATENCY;
+}
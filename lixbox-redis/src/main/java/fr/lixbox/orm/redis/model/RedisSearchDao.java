@@ -34,12 +34,30 @@ import redis.clients.jedis.search.Schema;
  * Cette interface est le contrat de base pour pouvoir utiliser
  * la recherche avancee de Redis
  * 
+ * Le schema et les valeurs d'index sont deduits par defaut des
+ * annotations {@link TextIndex}, {@link NumericIndex} et {@link TagIndex}
+ * des proprietes, voir {@link RedisIndexMetadata}.
+ * 
  * @author ludovic.terral
  */
 public interface RedisSearchDao extends Dao
 {
     @JsonIgnore String getKey();
-    @JsonIgnore Schema getIndexSchema();
-    @JsonIgnore Map<String, Object> getIndexFieldValues();
     @JsonIgnore long getTTL();
+
+
+
+    @JsonIgnore 
+    default Schema getIndexSchema()
+    {
+        return RedisIndexMetadata.of(getClass()).getSchema();
+    }
+
+
+
+    @JsonIgnore 
+    default Map<String, Object> getIndexFieldValues()
+    {
+        return RedisIndexMetadata.of(getClass()).getFieldValues(this);
+    }
 }
@@ -0,0 +1,44 @@
+/*******************************************************************************
+ *    
+ *                           FRAMEWORK Lixbox
+ *                          ==================
+ *      
+ * This file is part of lixbox-orm.
+ *
+ *    lixbox-orm is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    lixbox-orm is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *    along with lixbox-orm.  If not, see <https://www.gnu.org/licenses/>
+ *   
+ *   @AUTHOR Lixbox-team
+ *
+ ******************************************************************************/
+package fr.lixbox.orm.redis.model;
+
+/**
+ * Cette enumeration liste les modes de stockage des entites dans redis.
+ * 
+ * @author ludovic.terral
+ */
+public enum RedisStorageMode
+{
+    /**
+     * L'entite est stockee en json sous sa cle et ses champs indexes
+     * dans un hash separe.
+     */
+    HASH, 
+    
+    /**
+     * L'entite et ses champs indexes sont stockes dans un seul document
+     * RedisJSON, l'index est defini sur ce document.
+     */
+    JSON;
+}
@@ -0,0 +1,304 @@
+/*******************************************************************************
+ *    
+ *                           FRAMEWORK Lixbox
+ *                          ==================
+ *      
+ * This file is part of lixbox-orm.
+ *
+ *    lixbox-orm is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    lixbox-orm is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *    along with lixbox-orm.  If not, see <https://www.gnu.org/licenses/>
+ *   
+ *   @AUTHOR Lixbox-team
+ *
+ ******************************************************************************/
+package fr.lixbox.orm.redis.query;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+
+import redis.clients.jedis.search.aggr.AggregationBuilder;
+import redis.clients.jedis.search.aggr.Reducer;
+import redis.clients.jedis.search.aggr.Reducers;
+import redis.clients.jedis.search.aggr.SortedField;
+
+/**
+ * Cette classe decrit une agregation FT.AGGREGATE executee par le
+ * serveur: seules les lignes agregees sont transferees.
+ *
+ * <pre>
+ * RedisAggregation aggregation = new RedisAggregation("@typeJour:test1")
+ *         .groupBy("typeJour").count("nombre").max("dateEvent", "derniere")
+ *         .sortByDesc("nombre").limit(0, 10);
+ * List&lt;RedisAggregateRow&gt; rows = client.aggregate(JNO.class, aggregation);
+ * </pre>
+ *
+ * Les reducteurs s'appliquent au dernier groupBy. Les noms de champs
+ * sont acceptes avec ou sans '@'. Une agregation peut etre executee
+ * plusieurs fois.
+ *
+ * Sans appel a limit, les lignes sont limitees a {@link #DEFAULT_LIMIT}:
+ * RediSearch ne renverrait sinon que 10 lignes apres un sortBy.
+ *
+ * @author ludovic.terral
+ */
+public class RedisAggregation
+{
+    // ----------- Attibuts -----------
+    public static final int DEFAULT_LIMIT = 500;
+    private static final char FIELD_PREFIX = '@';
+
+    private final String query;
+    private final List<Consumer<AggregationBuilder>> steps = new ArrayList<>();
+    private final Set<String> groupedFields = new LinkedHashSet<>();
+    private boolean limited = false;
+    private List<String> groupFields;
+    private List<Reducer> groupReducers;
+
+
+
+    //----------- Methodes -----------
+    public RedisAggregation()
+    {
+        this("*");
+    }
+    public RedisAggregation(String query)
+    {
+        this.query = query;
+    }
+
+
+
+    public String getQuery()
+    {
+        return query;
+    }
+
+
+
+    /**
+     * Cette methode charge des champs du document qui ne sont pas
+     * sortable, pour les utiliser dans apply, filter ou sortBy.
+     *
+     * @param fields
+     *
+     * @return l'agregation.
+     */
+    public RedisAggregation load(String... fields)
+    {
+        String[] loaded = toFields(fields).toArray(new String[0]);
+        return step(builder -> builder.load(loaded));
+    }
+
+
+
+    public RedisAggregation groupBy(String... fields)
+    {
+        closeGroup();
+        groupFields = toFields(fields);
+        groupReducers = new ArrayList<>();
+        for (String field : groupFields)
+        {
+            groupedFields.add(field.substring(1));
+        }
+        return this;
+    }
+
+
+
+    public RedisAggregation count(String alias)
+    {
+        return reduce(Reducers.count().as(alias));
+    }
+
+
+
+    public RedisAggregation countDistinct(String field, String alias)
+    {
+        return reduce(Reducers.count_distinct(toField(field)).as(alias));
+    }
+
+
+
+    public RedisAggregation sum(String field, String alias)
+    {
+        return reduce(Reducers.sum(toField(field)).as(alias));
+    }
+
+
+
+    public RedisAggregation avg(String field, String alias)
+    {
+        return reduce(Reducers.avg(toField(field)).as(alias));
+    }
+
+
+
+    public RedisAggregation min(String field, String alias)
+    {
+        return reduce(Reducers.min(toField(field)).as(alias));
+    }
+
+
+
+    public RedisAggregation max(String field, String alias)
+    {
+        return reduce(Reducers.max(toField(field)).as(alias));
+    }
+
+
+
+    /**
+     * Cette methode ajoute un reducteur au dernier groupBy.
+     *
+     * @param reducer
+     *
+     * @return l'agregation.
+     */
+    public RedisAggregation reduce(Reducer reducer)
+    {
+        if (groupReducers==null)
+        {
+            throw new IllegalStateException("A reducer must follow a groupBy");
+        }
+        groupReducers.add(reducer);
+        return this;
+    }
+
+
+
+    /**
+     * @param expression expression RediSearch, par exemple "@dateEvent/1000"
+     * @param alias nom du champ calcule
+     *
+     * @return l'agregation.
+     */
+    public RedisAggregation apply(String expression, String alias)
+    {
+        return step(builder -> builder.apply(expression, alias));
+    }
+
+
+
+    public RedisAggregation filter(String expression)
+    {
+        return step(builder -> builder.filter(expression));
+    }
+
+
+
+    public RedisAggregation sortByAsc(String field)
+    {
+        String sorted = toField(field);
+        return step(builder -> builder.sortBy(SortedField.asc(sorted)));
+    }
+
+
+
+    public RedisAggregation sortByDesc(String field)
+    {
+        String sorted = toField(field);
+        return step(builder -> builder.sortBy(SortedField.desc(sorted)));
+    }
+
+
+
+    public RedisAggregation limit(int offset, int count)
+    {
+        limited = true;
+        return step(builder -> builder.limit(offset, count));
+    }
+
+
+
+    /**
+     * @return les noms, sans '@', des champs de tous les groupBy.
+     */
+    public Set<String> getGroupedFields()
+    {
+        return Collections.unmodifiableSet(groupedFields);
+    }
+
+
+
+    /**
+     * @return une nouvelle requete FT.AGGREGATE portant toutes les etapes.
+     */
+    public AggregationBuilder toAggregationBuilder()
+    {
+        closeGroup();
+        AggregationBuilder result = new AggregationBuilder(query);
+        for (Consumer<AggregationBuilder> step : steps)
+        {
+            step.accept(result);
+        }
+        if (!limited)
+        {
+            result.limit(0, DEFAULT_LIMIT);
+        }
+        return result;
+    }
+
+
+
+    @Override
+    public String toString()
+    {
+        return "Aggregation [ "+query+" ]";
+    }
+
+
+
+    private RedisAggregation step(Consumer<AggregationBuilder> step)
+    {
+        closeGroup();
+        steps.add(step);
+        return this;
+    }
+
+
+
+    private void closeGroup()
+    {
+        if (groupFields!=null)
+        {
+            List<String> fields = groupFields;
+            List<Reducer> reducers = groupReducers;
+            steps.add(builder -> builder.groupBy(fields, reducers));
+            groupFields = null;
+            groupReducers = null;
+        }
+    }
+
+
+
+    private static List<String> toFields(String... fields)
+    {
+        List<String> result = new ArrayList<>(fields.length);
+        for (String field : fields)
+        {
+            result.add(toField(field));
+        }
+        return result;
+    }
+
+
+
+    private static String toField(String field)
+    {
+        return field.charAt(0)==FIELD_PREFIX?field:FIELD_PREFIX+field;
+    }
+}
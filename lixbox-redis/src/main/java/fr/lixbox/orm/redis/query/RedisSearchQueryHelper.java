@@ -24,8 +24,8 @@
 package fr.lixbox.orm.redis.query;
 
 import java.util.Collection;
+import java.util.Map;
 
-import fr.lixbox.common.helper.StringTokenizer;
 import fr.lixbox.common.util.CollectionUtil;
 import fr.lixbox.common.util.StringUtil;
 import fr.lixbox.orm.redis.model.RedisSearchDao;
@@ -89,11 +89,12 @@ public class RedisSearchQueryHelper
     public static String toQueryByCriteria(RedisSearchDao criteria, boolean startWith)
     {
         StringBuilder query = new StringBuilder("");
+        Map<String, Object> values = criteria.getIndexFieldValues();
         for (Field index : criteria.getIndexSchema().fields)
         {   
-            if (criteria.getIndexFieldValues().containsKey(index.name) && criteria.getIndexFieldValues().get(index.name)!=null)
+            Object value = values.get(index.name);
+            if (value!=null)
             {
-                Object value = criteria.getIndexFieldValues().get(index.name);
                 if (index.type.equals(FieldType.NUMERIC))
                 {
                     query.append(addNumericField(index.name, value));
@@ -120,10 +121,7 @@ public class RedisSearchQueryHelper
         {
             if (((String)value).length()>2)
             {
-                String sValue = (String) value;
-                sValue = sValue.replace("[ ","").replace(" ]", "");
-                StringTokenizer tokenizer = new StringTokenizer(sValue, " ");
-                query.append(toAndMultipurposeField(indexName, tokenizer.getTokens()));
+                query.append(toAndMultipurposeField(indexName, RedisSearchValueSanitizer.restoreFieldValueToList(value)));
                 query.append(' ');
             }
         }
@@ -0,0 +1,435 @@
+/*******************************************************************************
+ *    
+ *                           FRAMEWORK Lixbox
+ *                          ==================
+ *      
+ * This file is part of lixbox-orm.
+ *
+ *    lixbox-orm is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    lixbox-orm is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *    along with lixbox-orm.  If not, see <https://www.gnu.org/licenses/>
+ *   
+ *   @AUTHOR Lixbox-team
+ *
+ ******************************************************************************/
+package fr.lixbox.orm.redis.query;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.UnaryOperator;
+
+import fr.lixbox.orm.redis.model.EQuery;
+import fr.lixbox.orm.redis.model.RedisSearchDao;
+import redis.clients.jedis.search.Schema;
+import redis.clients.jedis.search.Schema.Field;
+import redis.clients.jedis.search.Schema.FieldType;
+
+/**
+ * Ce gabarit porte une requete RediSearch compilee une seule fois, dont
+ * les valeurs sont des parametres nommes transmis par PARAMS (DIALECT 2).
+ * La requete n'est plus reconstruite ni echappee a chaque appel, seules
+ * les valeurs texte sont normalisees comme a l'indexation.
+ *
+ * <pre>
+ * RedisSearchQueryTemplate template = RedisSearchQueryTemplate.of(JNO.class, "parTypeEtDate",
+ *         builder -&gt; builder.text("typeJour").between("dateEvent"));
+ * client.findByExpression(JNO.class, template.toQuery(TypeJour.test2, debut, fin));
+ * </pre>
+ *
+ * Un parametre texte est compare comme un terme unique: les valeurs de
+ * plusieurs mots et les recherches par prefixe restent du ressort de
+ * {@link RedisSearchQueryHelper}.
+ *
+ * @author ludovic.terral
+ */
+public final class RedisSearchQueryTemplate
+{
+    // ----------- Attibuts -----------
+    public static final int DIALECT = 2;
+
+    private static final ClassValue<ConcurrentMap<String, RedisSearchQueryTemplate>> TEMPLATES = 
+            new ClassValue<ConcurrentMap<String, RedisSearchQueryTemplate>>()
+    {
+        @Override
+        protected ConcurrentMap<String, RedisSearchQueryTemplate> computeValue(Class<?> type)
+        {
+            return new ConcurrentHashMap<>();
+        }
+    };
+
+    private final String queryString;
+    private final List<String> parameterNames;
+    private final List<ParameterType> parameterTypes;
+
+
+
+    //----------- Methodes -----------
+    private RedisSearchQueryTemplate(String queryString, List<String> parameterNames, List<ParameterType> parameterTypes)
+    {
+        this.queryString = queryString;
+        this.parameterNames = Collections.unmodifiableList(parameterNames);
+        this.parameterTypes = parameterTypes;
+    }
+
+
+
+    /**
+     * Cette methode renvoie le gabarit nomme d'une classe, compile lors
+     * de sa premiere demande.
+     *
+     * @param entityClass
+     * @param name nom du gabarit, unique pour la classe
+     * @param definition construction de la requete
+     *
+     * @return le gabarit.
+     */
+    public static RedisSearchQueryTemplate of(Class<? extends RedisSearchDao> entityClass, String name, 
+            UnaryOperator<Builder> definition)
+    {
+        return TEMPLATES.get(entityClass).computeIfAbsent(name, k -> definition.apply(builder(entityClass)).build());
+    }
+
+
+
+    public static Builder builder()
+    {
+        return new Builder(null);
+    }
+    /**
+     * Ce constructeur verifie le type de chaque champ dans le schema
+     * d'index de la classe.
+     *
+     * @param entityClass
+     *
+     * @return le constructeur de gabarit.
+     */
+    public static Builder builder(Class<? extends RedisSearchDao> entityClass)
+    {
+        try
+        {
+            return new Builder(entityClass.getDeclaredConstructor().newInstance().getIndexSchema());
+        }
+        catch (ReflectiveOperationException e)
+        {
+            throw new IllegalArgumentException("Unable to read the index schema of "+entityClass.getName(), e);
+        }
+    }
+
+
+
+    public String getQueryString()
+    {
+        return queryString;
+    }
+
+
+
+    public List<String> getParameterNames()
+    {
+        return parameterNames;
+    }
+
+
+
+    /**
+     * Cette methode lie les valeurs aux parametres dans leur ordre de
+     * declaration.
+     *
+     * @param values
+     *
+     * @return la requete prete a etre executee.
+     */
+    public EQuery toQuery(Object... values)
+    {
+        if (values.length!=parameterNames.size())
+        {
+            throw new IllegalArgumentException("Expected "+parameterNames.size()+" values for "+parameterNames+
+                    ", got "+values.length);
+        }
+        EQuery result = newQuery();
+        for (int ix=0; ix<values.length; ix++)
+        {
+            bind(result, ix, values[ix]);
+        }
+        return result;
+    }
+    /**
+     * Cette methode lie les valeurs aux parametres par leur nom.
+     *
+     * @param values
+     *
+     * @return la requete prete a etre executee.
+     */
+    public EQuery toQuery(Map<String, ?> values)
+    {
+        EQuery result = newQuery();
+        for (int ix=0; ix<parameterNames.size(); ix++)
+        {
+            bind(result, ix, values.get(parameterNames.get(ix)));
+        }
+        return result;
+    }
+
+
+
+    @Override
+    public String toString()
+    {
+        return "QueryTemplate [ "+queryString+" ]";
+    }
+
+
+
+    private EQuery newQuery()
+    {
+        EQuery result = new EQuery(queryString);
+        result.dialect(DIALECT);
+        return result;
+    }
+
+
+
+    private void bind(EQuery query, int index, Object value)
+    {
+        if (value==null)
+        {
+            throw new IllegalArgumentException("Missing value for parameter "+parameterNames.get(index));
+        }
+        query.addParam(parameterNames.get(index), parameterTypes.get(index).convert(value));
+    }
+
+
+
+    private enum ParameterType
+    {
+        TEXT
+        {
+            @Override
+            Object convert(Object value)
+            {
+                return RedisSearchValueSanitizer.normalizeValue(value);
+            }
+        },
+        NUMERIC
+        {
+            @Override
+            Object convert(Object value)
+            {
+                if (value instanceof Calendar)
+                {
+                    return ((Calendar) value).getTimeInMillis();
+                }
+                if (value instanceof Date)
+                {
+                    return ((Date) value).getTime();
+                }
+                return value;
+            }
+        };
+
+
+
+        abstract Object convert(Object value);
+    }
+
+
+
+    /**
+     * Ce constructeur assemble les clauses de la requete, reliees par un
+     * ET implicite. Chaque parametre porte le nom de son champ, suffixe
+     * en cas de doublon.
+     */
+    public static final class Builder
+    {
+        private final Schema schema;
+        private final StringBuilder query = new StringBuilder();
+        private final List<String> parameterNames = new ArrayList<>();
+        private final List<ParameterType> parameterTypes = new ArrayList<>();
+
+
+
+        private Builder(Schema schema)
+        {
+            this.schema = schema;
+        }
+
+
+
+        /**
+         * @param field champ texte
+         *
+         * @return @field:$field
+         */
+        public Builder text(String field)
+        {
+            checkType(field, FieldType.TEXT);
+            clause(field).append('$').append(parameter(field, ParameterType.TEXT));
+            return this;
+        }
+
+
+
+        /**
+         * @param field champ tag
+         *
+         * @return @field:{$field}
+         */
+        public Builder tag(String field)
+        {
+            checkType(field, FieldType.TAG);
+            clause(field).append("{$").append(parameter(field, ParameterType.TEXT)).append('}');
+            return this;
+        }
+
+
+
+        /**
+         * @param field champ numerique
+         *
+         * @return @field:[$field $field]
+         */
+        public Builder numeric(String field)
+        {
+            checkType(field, FieldType.NUMERIC);
+            String name = parameter(field, ParameterType.NUMERIC);
+            clause(field).append("[$").append(name).append(" $").append(name).append(']');
+            return this;
+        }
+
+
+
+        /**
+         * @param field champ numerique
+         *
+         * @return @field:[$field_min $field_max], bornes incluses
+         */
+        public Builder between(String field)
+        {
+            checkType(field, FieldType.NUMERIC);
+            String min = parameter(field+"_min", ParameterType.NUMERIC);
+            String max = parameter(field+"_max", ParameterType.NUMERIC);
+            clause(field).append("[$").append(min).append(" $").append(max).append(']');
+            return this;
+        }
+
+
+
+        /**
+         * @param field champ numerique
+         *
+         * @return @field:[$field +inf]
+         */
+        public Builder atLeast(String field)
+        {
+            checkType(field, FieldType.NUMERIC);
+            clause(field).append("[$").append(parameter(field, ParameterType.NUMERIC)).append(" +inf]");
+            return this;
+        }
+
+
+
+        /**
+         * @param field champ numerique
+         *
+         * @return @field:[-inf $field]
+         */
+        public Builder atMost(String field)
+        {
+            checkType(field, FieldType.NUMERIC);
+            clause(field).append("[-inf $").append(parameter(field, ParameterType.NUMERIC)).append(']');
+            return this;
+        }
+
+
+
+        /**
+         * Cette methode ajoute une clause fixe, sans parametre.
+         *
+         * @param expression
+         *
+         * @return le constructeur.
+         */
+        public Builder expression(String expression)
+        {
+            separate().append(expression);
+            return this;
+        }
+
+
+
+        public RedisSearchQueryTemplate build()
+        {
+            return new RedisSearchQueryTemplate(query.length()>0?query.toString():"*", 
+                    new ArrayList<>(parameterNames), new ArrayList<>(parameterTypes));
+        }
+
+
+
+        private StringBuilder clause(String field)
+        {
+            return separate().append('@').append(field).append(':');
+        }
+
+
+
+        private StringBuilder separate()
+        {
+            if (query.length()>0)
+            {
+                query.append(' ');
+            }
+            return query;
+        }
+
+
+
+        private String parameter(String base, ParameterType type)
+        {
+            String result = base;
+            for (int ix=2; parameterNames.contains(result); ix++)
+            {
+                result = base+"_"+ix;
+            }
+            parameterNames.add(result);
+            parameterTypes.add(type);
+            return result;
+        }
+
+
+
+        private void checkType(String field, FieldType expected)
+        {
+            if (schema==null)
+            {
+                return;
+            }
+            for (Field candidate : schema.fields)
+            {
+                if (candidate.name.equals(field))
+                {
+                    if (!expected.equals(candidate.type))
+                    {
+                        throw new IllegalArgumentException("Field "+field+" is "+candidate.type+", not "+expected);
+                    }
+                    return;
+                }
+            }
+            throw new IllegalArgumentException("Field "+field+" is not indexed");
+        }
+    }
+}
@@ -23,15 +23,66 @@
  ******************************************************************************/
 package fr.lixbox.orm.redis.query;
 
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.math.BigDecimal;
+import java.math.BigInteger;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 
-import fr.lixbox.common.helper.StringTokenizer;
-import fr.lixbox.common.util.StringUtil;
+import com.fasterxml.jackson.annotation.JsonFormat;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonValue;
+
 import fr.lixbox.io.json.JsonUtil;
 
+/**
+ * Cette classe prepare les valeurs des champs indexes et des termes de
+ * requete selon la tokenisation de RediSearch. Les separateurs de
+ * ponctuation ,.<>{}[]"':;!@#$%^&*()-+=~| sont echappes par un antislash
+ * plutot que remplaces: le terme reste entier a l'indexation comme en
+ * recherche. Un caractere deja echappe ne l'est pas une seconde fois.
+ * Les espaces restent des separateurs de mots, une recherche par mot ou
+ * par prefixe sur un texte libre reste donc possible.
+ *
+ * Ce format differe de celui des versions precedentes, qui remplacaient
+ * '-', '@' et '.' par '_': {@link #FORMAT_VERSION} entre dans l'empreinte
+ * des index et les hash d'index existants sont reecrits a la migration.
+ *
+ * Chaque valeur est ecrite en une passe dans un tampon reutilise par
+ * thread. Les chaines, nombres, booleens, enumerations et collections
+ * de ces types ne passent pas par la serialisation json.
+ *
+ * @author ludovic.terral
+ */
 public class RedisSearchValueSanitizer
 {
+    // ----------- Attibuts -----------
+    /**
+     * Version du format des valeurs indexees.
+     */
+    public static final int FORMAT_VERSION = 2;
+    
+    private static final char ESCAPE = '\\';
+    private static final String SEPARATORS = ",.<>{}[]\"':;!@#$%^&*()-+=~|";
+    private static final boolean[] SEPARATOR_TABLE = createSeparatorTable();
+    private static final int INITIAL_BUFFER_CAPACITY = 128;
+    private static final int MAX_BUFFER_CAPACITY = 4096;
+    private static final ThreadLocal<StringBuilder> BUFFER = 
+            ThreadLocal.withInitial(() -> new StringBuilder(INITIAL_BUFFER_CAPACITY));
+    private static final ClassValue<Boolean> PLAIN_ENUMS = new ClassValue<Boolean>()
+    {
+        @Override
+        protected Boolean computeValue(Class<?> type)
+        {
+            return isPlainEnum(type);
+        }
+    };
+
+
+
+    //----------- Methodes -----------
     private RedisSearchValueSanitizer()
     {
         //singleton
@@ -39,35 +90,506 @@ public class RedisSearchValueSanitizer
     
 
     
-    public static  List<String> restoreFieldValueToList(Object oValues)
+    /**
+     * Cette methode decoupe la valeur indexee d'une collection, de la
+     * forme [ a , b ], en ses elements non echappes.
+     *
+     * @param oValues
+     *
+     * @return les elements.
+     */
+    public static List<String> restoreFieldValueToList(Object oValues)
     {
-        List<String> arrays = new ArrayList<>();
+        List<String> result = new ArrayList<>();
         String values = (String) oValues;
-        values = values.replace("[ ", "").replace(" ]", "").replace("\\[ ", "").replace(" \\]", "").replace(" , ", ",");
-        StringTokenizer tokenizer = new StringTokenizer(values, ",");
-        arrays.addAll(tokenizer.getTokens());
-        return arrays;
+        StringBuilder token = acquireBuffer();
+        try
+        {
+            int length = values.length();
+            int ix = 0;
+            while (ix<length)
+            {
+                char current = values.charAt(ix);
+                if (values.startsWith("\\[ ", ix) || values.startsWith(" \\]", ix) || values.startsWith(" , ", ix))
+                {
+                    addToken(result, token);
+                    ix += 3;
+                }
+                else if (values.startsWith("[ ", ix) || values.startsWith(" ]", ix))
+                {
+                    addToken(result, token);
+                    ix += 2;
+                }
+                else if (current==',')
+                {
+                    addToken(result, token);
+                    ix++;
+                }
+                else if (current==ESCAPE && ix+1<length && isSeparator(values.charAt(ix+1)))
+                {
+                    token.append(values.charAt(ix+1));
+                    ix += 2;
+                }
+                else
+                {
+                    token.append(current);
+                    ix++;
+                }
+            }
+            addToken(result, token);
+        }
+        finally
+        {
+            releaseBuffer(token);
+        }
+        return result;
     }
     
     
     
+    /**
+     * Cette methode prepare une valeur pour un champ indexe ou un terme
+     * de requete.
+     *
+     * @param value
+     *
+     * @return la valeur echappee, vide si elle est nulle.
+     */
     public static String sanitizeValue(Object value)
     {
-        String result = "";
-        if (value==null || value instanceof String && StringUtil.isEmpty((String)value))
+        return toTerm(value, true);
+    }
+
+
+
+    /**
+     * Cette methode prepare une valeur comme {@link #sanitizeValue(Object)}
+     * sans l'echapper, pour un parametre de requete (PARAMS) qui n'est pas
+     * analyse par le parseur de RediSearch.
+     *
+     * @param value
+     *
+     * @return la valeur, vide si elle est nulle.
+     */
+    public static String normalizeValue(Object value)
+    {
+        return toTerm(value, false);
+    }
+
+
+
+    /**
+     * Cette methode retire les echappements d'une valeur indexee par
+     * {@link #sanitizeValue(Object)}.
+     *
+     * @param value
+     *
+     * @return la valeur sans echappement.
+     */
+    public static String unescapeValue(String value)
+    {
+        if (value==null || value.indexOf(ESCAPE)<0)
+        {
+            return value;
+        }
+        StringBuilder buffer = acquireBuffer();
+        try
+        {
+            int length = value.length();
+            for (int ix=0; ix<length; ix++)
+            {
+                char current = value.charAt(ix);
+                if (current==ESCAPE && ix+1<length && isSeparator(value.charAt(ix+1)))
+                {
+                    current = value.charAt(++ix);
+                }
+                buffer.append(current);
+            }
+            return buffer.toString();
+        }
+        finally
         {
-            result="";
+            releaseBuffer(buffer);
         }
-        else if (value instanceof String && StringUtil.isNotEmpty((String)value))
+    }
+
+
+
+    private static String toTerm(Object value, boolean escape)
+    {
+        if (value==null)
         {
-            result = (String) value;
+            return "";
+        }
+        if (value instanceof String && isClean((String) value, escape))
+        {
+            return (String) value;
+        }
+        StringBuilder buffer = acquireBuffer();
+        try
+        {
+            if (!appendPlain(buffer, value, escape))
+            {
+                buffer.setLength(0);
+                appendJson(buffer, JsonUtil.transformObjectToJson(value, false), escape);
+            }
+            return trim(buffer);
+        }
+        finally
+        {
+            releaseBuffer(buffer);
+        }
+    }
+
+
+
+    /**
+     * Cette methode ecrit une valeur sans passer par json, comme elle
+     * l'aurait ete apres la serialisation json et le retrait des
+     * guillemets.
+     *
+     * @return false si la valeur doit etre serialisee en json.
+     */
+    private static boolean appendPlain(StringBuilder buffer, Object value, boolean escape)
+    {
+        int start = buffer.length();
+        if (value instanceof CharSequence)
+        {
+            appendText(buffer, (CharSequence) value, escape);
+        }
+        else if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte)
+        {
+            buffer.append(((Number) value).longValue());
+            escapeFrom(buffer, start, escape);
+        }
+        else if (value instanceof Double)
+        {
+            buffer.append(((Double) value).doubleValue());
+            escapeFrom(buffer, start, escape);
+        }
+        else if (value instanceof Float)
+        {
+            buffer.append(((Float) value).floatValue());
+            escapeFrom(buffer, start, escape);
+        }
+        else if (value instanceof BigDecimal || value instanceof BigInteger)
+        {
+            buffer.append(value);
+            escapeFrom(buffer, start, escape);
+        }
+        else if (value instanceof Boolean)
+        {
+            buffer.append(((Boolean) value).booleanValue());
+        }
+        else if (value instanceof Character && isPlainChar((Character) value))
+        {
+            appendChar(buffer, (Character) value, escape);
+        }
+        else if (value instanceof Enum && PLAIN_ENUMS.get(((Enum<?>) value).getDeclaringClass()))
+        {
+            appendText(buffer, ((Enum<?>) value).name(), escape);
+        }
+        else if (value instanceof Collection && isPlainCollection((Collection<?>) value))
+        {
+            appendCollection(buffer, (Collection<?>) value, escape);
         }
         else
         {
-            result = JsonUtil.transformObjectToJson(value, false);
-            result = result.replace('"',' ');
+            return false;
+        }
+        return true;
+    }
+
+
+
+    /**
+     * Cette methode reproduit le json d'une collection, les chaines
+     * etant entourees d'espaces a la place des guillemets.
+     */
+    private static void appendCollection(StringBuilder buffer, Collection<?> values, boolean escape)
+    {
+        buffer.append('[');
+        boolean first = true;
+        for (Object item : values)
+        {
+            if (!first)
+            {
+                buffer.append(',');
+            }
+            first = false;
+            if (item==null)
+            {
+                buffer.append("null");
+            }
+            else if (item instanceof Number || item instanceof Boolean)
+            {
+                appendPlain(buffer, item, escape);
+            }
+            else
+            {
+                buffer.append(' ');
+                appendPlain(buffer, item, escape);
+                buffer.append(' ');
+            }
+        }
+        buffer.append(']');
+    }
+
+
+
+    private static void appendText(StringBuilder buffer, CharSequence value, boolean escape)
+    {
+        int length = value.length();
+        for (int ix=0; ix<length; ix++)
+        {
+            char current = value.charAt(ix);
+            if (current==ESCAPE && ix+1<length)
+            {
+                buffer.append(current).append(value.charAt(++ix));
+            }
+            else
+            {
+                appendChar(buffer, current, escape);
+            }
+        }
+    }
+
+
+
+    /**
+     * Cette methode ecrit un json, les guillemets remplaces par des espaces.
+     * Hors des chaines, seuls les signes et points des nombres sont
+     * echappes: la structure du json reste faite de separateurs.
+     */
+    private static void appendJson(StringBuilder buffer, String json, boolean escape)
+    {
+        boolean inString = false;
+        int length = json.length();
+        for (int ix=0; ix<length; ix++)
+        {
+            char current = json.charAt(ix);
+            if (current==ESCAPE && ix+1<length)
+            {
+                char next = json.charAt(++ix);
+                buffer.append(current).append(next=='"'?' ':next);
+            }
+            else if (current=='"')
+            {
+                inString = !inString;
+                buffer.append(' ');
+            }
+            else if (inString || isNumberSign(current))
+            {
+                appendChar(buffer, current, escape);
+            }
+            else
+            {
+                buffer.append(current);
+            }
+        }
+    }
+
+
+
+    private static void appendChar(StringBuilder buffer, char value, boolean escape)
+    {
+        if (escape && isSeparator(value))
+        {
+            buffer.append(ESCAPE);
+        }
+        buffer.append(value);
+    }
+
+
+
+    private static void escapeFrom(StringBuilder buffer, int start, boolean escape)
+    {
+        if (escape)
+        {
+            for (int ix=start; ix<buffer.length(); ix++)
+            {
+                if (isSeparator(buffer.charAt(ix)))
+                {
+                    buffer.insert(ix++, ESCAPE);
+                }
+            }
+        }
+    }
+
+
+
+    private static boolean isClean(String value, boolean escape)
+    {
+        int length = value.length();
+        if (length==0)
+        {
+            return true;
+        }
+        if (value.charAt(0)<=' ' || value.charAt(length-1)<=' ')
+        {
+            return false;
+        }
+        if (escape)
+        {
+            for (int ix=0; ix<length; ix++)
+            {
+                char current = value.charAt(ix);
+                if (current==ESCAPE)
+                {
+                    ix++;
+                }
+                else if (isSeparator(current))
+                {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+
+
+    private static boolean isPlainCollection(Collection<?> values)
+    {
+        for (Object item : values)
+        {
+            boolean plain = item==null || item instanceof Boolean 
+                    || item instanceof Integer || item instanceof Long || item instanceof Short || item instanceof Byte
+                    || item instanceof Double || item instanceof Float 
+                    || item instanceof BigDecimal || item instanceof BigInteger
+                    || item instanceof String && isPlainString((String) item)
+                    || item instanceof Character && isPlainChar((Character) item)
+                    || item instanceof Enum && PLAIN_ENUMS.get(((Enum<?>) item).getDeclaringClass());
+            if (!plain)
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+
+    /**
+     * Une chaine est plain si json ne l'echappe pas.
+     */
+    private static boolean isPlainString(String value)
+    {
+        for (int ix=0; ix<value.length(); ix++)
+        {
+            if (!isPlainChar(value.charAt(ix)))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+
+    private static boolean isPlainChar(char value)
+    {
+        return value>=' ' && value!='"' && value!=ESCAPE;
+    }
+
+
+
+    /**
+     * Une enumeration est plain si jackson la serialise par son nom.
+     */
+    private static boolean isPlainEnum(Class<?> type)
+    {
+        if (type.isAnnotationPresent(JsonFormat.class))
+        {
+            return false;
+        }
+        for (Field field : type.getDeclaredFields())
+        {
+            if (field.isEnumConstant() && field.isAnnotationPresent(JsonProperty.class))
+            {
+                return false;
+            }
+        }
+        for (Method method : type.getDeclaredMethods())
+        {
+            if (method.isAnnotationPresent(JsonValue.class))
+            {
+                return false;
+            }
         }
-        result = result.replace('-', '_').replace('@', '_').replace('.', '_').trim();
+        return true;
+    }
+
+
+
+    private static boolean isSeparator(char value)
+    {
+        return value<SEPARATOR_TABLE.length && SEPARATOR_TABLE[value];
+    }
+
+
+
+    private static boolean isNumberSign(char value)
+    {
+        return value=='-' || value=='+' || value=='.';
+    }
+
+
+
+    private static boolean[] createSeparatorTable()
+    {
+        boolean[] result = new boolean[128];
+        for (int ix=0; ix<SEPARATORS.length(); ix++)
+        {
+            result[SEPARATORS.charAt(ix)] = true;
+        }
+        return result;
+    }
+
+
+
+    private static String trim(StringBuilder buffer)
+    {
+        int start = 0;
+        int end = buffer.length();
+        while (start<end && buffer.charAt(start)<=' ')
+        {
+            start++;
+        }
+        while (end>start && buffer.charAt(end-1)<=' ')
+        {
+            end--;
+        }
+        return buffer.substring(start, end);
+    }
+
+
+
+    private static void addToken(List<String> tokens, StringBuilder token)
+    {
+        if (token.length()>0)
+        {
+            tokens.add(token.toString());
+            token.setLength(0);
+        }
+    }
+
+
+
+    private static StringBuilder acquireBuffer()
+    {
+        StringBuilder result = BUFFER.get();
+        result.setLength(0);
         return result;
     }
-}
\ No newline at end of file
+
+
+
+    private static void releaseBuffer(StringBuilder buffer)
+    {
+        if (buffer.capacity()>MAX_BUFFER_CAPACITY)
+        {
+            BUFFER.set(new StringBuilder(INITIAL_BUFFER_CAPACITY));
+        }
+    }
+}
@@ -0,0 +1,167 @@
+/*******************************************************************************
+ *    
+ *                           FRAMEWORK Lixbox
+ *                          ==================
+ *      
+ * This file is part of lixbox-orm.
+ *
+ *    lixbox-orm is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    lixbox-orm is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *    along with lixbox-orm.  If not, see <https://www.gnu.org/licenses/>
+ *   
+ *   @AUTHOR Lixbox-team
+ *
+ ******************************************************************************/
+package fr.lixbox.orm.redis.script;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import redis.clients.jedis.util.SafeEncoder;
+
+/**
+ * Cette enumeration liste les scripts Lua des operations composees du
+ * client. Chaque script est lu depuis le classpath et identifie par son
+ * empreinte SHA1, celle qu'utilise EVALSHA.
+ *
+ * @author ludovic.terral
+ */
+public enum RedisScript
+{
+    /**
+     * Ecriture d'une entite, de son hash d'index et de leur expiration.
+     */
+    MERGE_HASH("merge_hash.lua"),
+    
+    /**
+     * Ecriture d'un document RedisJSON et de son expiration.
+     */
+    MERGE_JSON("merge_json.lua"),
+    
+    /**
+     * Ecriture d'une entite versionnee, conditionnee a sa version en mode hash.
+     */
+    MERGE_OPTIMISTIC_HASH("merge_optimistic_hash.lua"),
+    
+    /**
+     * Ecriture d'un document RedisJSON versionne, conditionnee a sa version.
+     */
+    MERGE_OPTIMISTIC_JSON("merge_optimistic_json.lua"),
+    
+    /**
+     * Suppression d'une entite et de son hash d'index.
+     */
+    REMOVE("remove.lua"),
+    
+    /**
+     * Suppression d'un hash d'index dont l'entite n'existe plus.
+     */
+    REMOVE_ORPHAN("remove_orphan.lua"),
+    
+    /**
+     * Reecriture d'un hash d'index, conditionnee au corps lu de l'entite.
+     */
+    REWRITE_INDEX("rewrite_index.lua"),
+    
+    /**
+     * Mise a jour des metadonnees d'un index, conditionnee a son empreinte.
+     */
+    UPDATE_INDEX_METADATA("update_index_metadata.lua");
+
+
+
+    // ----------- Attibuts -----------
+    private final String source;
+    private final String sha;
+    private final byte[] shaBytes;
+
+
+
+    //----------- Methodes -----------
+    private RedisScript(String resource)
+    {
+        this.source = readResource(resource);
+        this.sha = sha1(source.getBytes(StandardCharsets.UTF_8));
+        this.shaBytes = SafeEncoder.encode(sha);
+    }
+
+
+
+    public String getSource()
+    {
+        return source;
+    }
+
+
+
+    public String getSha()
+    {
+        return sha;
+    }
+
+
+
+    public byte[] getShaBytes()
+    {
+        return shaBytes;
+    }
+
+
+
+    private static String readResource(String resource)
+    {
+        try (InputStream input = RedisScript.class.getResourceAsStream(resource))
+        {
+            if (input==null)
+            {
+                throw new IllegalStateException("Missing script "+resource);
+            }
+            return new String(input.readAllBytes(), StandardCharsets.UTF_8);
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+
+
+    /**
+     * Cette methode calcule l'empreinte SHA1 hexadecimale d'une valeur,
+     * identique a celle de redis.sha1hex cote serveur.
+     *
+     * @param value
+     *
+     * @return l'empreinte en minuscules.
+     */
+    public static String sha1(byte[] value)
+    {
+        try
+        {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(value);
+            StringBuilder result = new StringBuilder(digest.length*2);
+            for (byte digit : digest)
+            {
+                result.append(Character.forDigit((digit>>4) & 0xF, 16)).append(Character.forDigit(digit & 0xF, 16));
+            }
+            return result.toString();
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,175 @@
+/*******************************************************************************
+ *    
+ *                           FRAMEWORK Lixbox
+ *                          ==================
+ *      
+ * This file is part of lixbox-orm.
+ *
+ *    lixbox-orm is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    lixbox-orm is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *    along with lixbox-orm.  If not, see <https://www.gnu.org/licenses/>
+ *   
+ *   @AUTHOR Lixbox-team
+ *
+ ******************************************************************************/
+package fr.lixbox.orm.redis.script;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import redis.clients.jedis.Connection;
+import redis.clients.jedis.ConnectionPool;
+import redis.clients.jedis.JedisCluster;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Protocol.Command;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.UnifiedJedis;
+import redis.clients.jedis.exceptions.JedisDataException;
+import redis.clients.jedis.util.SafeEncoder;
+
+/**
+ * Ce registre charge les scripts Lua une seule fois par SCRIPT LOAD et
+ * les execute par EVALSHA. Un script absent du serveur (redemarrage,
+ * SCRIPT FLUSH) est recharge de facon transparente. En mode cluster,
+ * les scripts sont charges sur tous les noeuds afin d'etre disponibles
+ * dans les pipelines ouverts par slot.
+ *
+ * @author ludovic.terral
+ */
+public class RedisScriptRegistry
+{
+    // ----------- Attibuts -----------
+    private static final Log LOG = LogFactory.getLog(RedisScriptRegistry.class);
+    private static final String NOSCRIPT_ERROR = "NOSCRIPT";
+    private static final String LOAD = "LOAD";
+
+    private final Set<RedisScript> loadedScripts = ConcurrentHashMap.newKeySet();
+
+
+
+    //----------- Methodes -----------
+    /**
+     * Cette methode execute un script en une seule commande EVALSHA.
+     *
+     * @param redisClient
+     * @param script
+     * @param keys
+     * @param args
+     *
+     * @return la reponse du script.
+     */
+    public Object eval(UnifiedJedis redisClient, RedisScript script, List<byte[]> keys, List<byte[]> args)
+    {
+        String sampleKey = SafeEncoder.encode(keys.get(0));
+        ensureLoaded(redisClient, sampleKey, script);
+        try
+        {
+            return redisClient.evalsha(script.getShaBytes(), keys, args);
+        }
+        catch (JedisDataException jde)
+        {
+            if (!isNoScriptError(jde))
+            {
+                throw jde;
+            }
+            invalidate();
+            ensureLoaded(redisClient, sampleKey, script);
+            return redisClient.evalsha(script.getShaBytes(), keys, args);
+        }
+    }
+
+
+
+    /**
+     * Cette methode ajoute l'execution d'un script a un pipeline. Le
+     * script doit avoir ete charge par {@link #ensureLoaded(UnifiedJedis, String, RedisScript...)}
+     * et l'appelant doit rejouer les reponses en erreur NOSCRIPT.
+     *
+     * @param pipeline
+     * @param script
+     * @param keys
+     * @param args
+     *
+     * @return la reponse differee du script.
+     */
+    public Response<Object> evalsha(Pipeline pipeline, RedisScript script, List<byte[]> keys, List<byte[]> args)
+    {
+        return pipeline.evalsha(script.getShaBytes(), keys, args);
+    }
+
+
+
+    /**
+     * Cette methode charge les scripts qui ne l'ont pas encore ete.
+     *
+     * @param redisClient
+     * @param sampleKey une cle manipulee par les scripts, pour le routage
+     * @param scripts
+     */
+    public void ensureLoaded(UnifiedJedis redisClient, String sampleKey, RedisScript... scripts)
+    {
+        for (RedisScript script : scripts)
+        {
+            if (!loadedScripts.contains(script))
+            {
+                if (redisClient instanceof JedisCluster)
+                {
+                    for (ConnectionPool pool : ((JedisCluster) redisClient).getClusterNodes().values())
+                    {
+                        try (Connection connection = pool.getResource())
+                        {
+                            connection.sendCommand(Command.SCRIPT, LOAD, script.getSource());
+                            checkSha(script, connection.getBulkReply());
+                        }
+                    }
+                }
+                else
+                {
+                    checkSha(script, redisClient.scriptLoad(script.getSource(), sampleKey));
+                }
+                loadedScripts.add(script);
+            }
+        }
+    }
+
+
+
+    /**
+     * Cette methode oublie les scripts charges, ils seront recharges a
+     * leur prochaine utilisation.
+     */
+    public void invalidate()
+    {
+        loadedScripts.clear();
+    }
+
+
+
+    public static boolean isNoScriptError(JedisDataException jde)
+    {
+        return jde.getMessage()!=null && jde.getMessage().startsWith(NOSCRIPT_ERROR);
+    }
+
+
+
+    private static void checkSha(RedisScript script, String sha)
+    {
+        if (!script.getSha().equals(sha))
+        {
+            LOG.warn("Unexpected sha "+sha+" for script "+script);
+        }
+    }
+}
@@ -0,0 +1,32 @@
+-- Enregistre une entite et son hash d'index avec la meme expiration.
+-- KEYS[1] cle de l'entite, KEYS[2] cle du hash d'index
+-- ARGV[1] corps de l'entite, ARGV[2] expiration en ms (0 sans expiration)
+-- ARGV[3..n] champs et valeurs du hash d'index, un champ vide est retire
+local ttl = tonumber(ARGV[2])
+if ttl > 0 then
+    redis.call('SET', KEYS[1], ARGV[1], 'PX', ttl)
+else
+    redis.call('SET', KEYS[1], ARGV[1])
+end
+-- le corps embarque est retire s'il n'est plus ecrit (mode inline desactive)
+-- et les champs a valeur vide sont retires pour ne plus etre indexes
+local removed = {'payload'}
+local fields = {}
+for ix = 3, #ARGV, 2 do
+    if ARGV[ix + 1] == '' then
+        removed[#removed + 1] = ARGV[ix]
+    else
+        fields[#fields + 1] = ARGV[ix]
+        fields[#fields + 1] = ARGV[ix + 1]
+    end
+end
+redis.call('HDEL', KEYS[2], unpack(removed))
+if #fields > 0 then
+    redis.call('HSET', KEYS[2], unpack(fields))
+end
+if ttl > 0 then
+    redis.call('PEXPIRE', KEYS[2], ttl)
+else
+    redis.call('PERSIST', KEYS[2])
+end
+return 1
@@ -0,0 +1,11 @@
+-- Enregistre le document RedisJSON d'une entite et son expiration.
+-- KEYS[1] cle du document
+-- ARGV[1] document json, ARGV[2] expiration en ms (0 sans expiration)
+redis.call('JSON.SET', KEYS[1], '$', ARGV[1])
+local ttl = tonumber(ARGV[2])
+if ttl > 0 then
+    redis.call('PEXPIRE', KEYS[1], ttl)
+else
+    redis.call('PERSIST', KEYS[1])
+end
+return 1
@@ -0,0 +1,49 @@
+-- Enregistre une entite versionnee si la version stockee est celle attendue.
+-- KEYS[1] cle de l'entite, KEYS[2] cle du hash d'index
+-- ARGV[1] version attendue, vide pour une nouvelle entite
+-- ARGV[2] corps de l'entite, ARGV[3] expiration en ms (0 sans expiration)
+-- ARGV[4..n] champs et valeurs du hash d'index, dont la nouvelle version,
+-- un champ vide est retire
+-- Renvoie 1 si l'entite est enregistree, 0 en cas de conflit.
+local exists = redis.call('EXISTS', KEYS[1]) == 1
+if ARGV[1] == '' then
+    if exists then
+        return 0
+    end
+else
+    if not exists then
+        return 0
+    end
+    local current = redis.call('HGET', KEYS[2], 'version')
+    if current and current ~= ARGV[1] then
+        return 0
+    end
+end
+local ttl = tonumber(ARGV[3])
+if ttl > 0 then
+    redis.call('SET', KEYS[1], ARGV[2], 'PX', ttl)
+else
+    redis.call('SET', KEYS[1], ARGV[2])
+end
+-- le corps embarque est retire s'il n'est plus ecrit (mode inline desactive)
+-- et les champs a valeur vide sont retires pour ne plus etre indexes
+local removed = {'payload'}
+local fields = {}
+for ix = 4, #ARGV, 2 do
+    if ARGV[ix + 1] == '' then
+        removed[#removed + 1] = ARGV[ix]
+    else
+        fields[#fields + 1] = ARGV[ix]
+        fields[#fields + 1] = ARGV[ix + 1]
+    end
+end
+redis.call('HDEL', KEYS[2], unpack(removed))
+if #fields > 0 then
+    redis.call('HSET', KEYS[2], unpack(fields))
+end
+if ttl > 0 then
+    redis.call('PEXPIRE', KEYS[2], ttl)
+else
+    redis.call('PERSIST', KEYS[2])
+end
+return 1
@@ -0,0 +1,31 @@
+-- Enregistre le document RedisJSON d'une entite versionnee si la version
+-- stockee est celle attendue.
+-- KEYS[1] cle du document
+-- ARGV[1] version attendue, vide pour une nouvelle entite
+-- ARGV[2] document json, ARGV[3] expiration en ms (0 sans expiration)
+-- Renvoie 1 si le document est enregistre, 0 en cas de conflit.
+local exists = redis.call('EXISTS', KEYS[1]) == 1
+if ARGV[1] == '' then
+    if exists then
+        return 0
+    end
+else
+    if not exists then
+        return 0
+    end
+    -- la version est serialisee en ms: comparaison numerique, quel que
+    -- soit le format du nombre ecrit par jackson
+    local current = redis.call('JSON.GET', KEYS[1], '$.entity.version')
+    local version = current and cjson.decode(current)[1]
+    if version ~= nil and version ~= cjson.null and tonumber(version) ~= tonumber(ARGV[1]) then
+        return 0
+    end
+end
+redis.call('JSON.SET', KEYS[1], '$', ARGV[2])
+local ttl = tonumber(ARGV[3])
+if ttl > 0 then
+    redis.call('PEXPIRE', KEYS[1], ttl)
+else
+    redis.call('PERSIST', KEYS[1])
+end
+return 1
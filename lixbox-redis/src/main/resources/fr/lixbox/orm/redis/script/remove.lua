@@ -0,0 +1,6 @@
+-- Supprime une entite et son hash d'index.
+-- KEYS[1] cle de l'entite, KEYS[2] cle du hash d'index
+-- Renvoie 1 si l'entite existait.
+local removed = redis.call('DEL', KEYS[1])
+redis.call('DEL', KEYS[2])
+return removed
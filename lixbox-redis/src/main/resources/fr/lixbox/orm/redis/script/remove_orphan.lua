@@ -0,0 +1,6 @@
+-- Supprime un hash d'index si son entite n'existe plus.
+-- KEYS[1] cle du hash d'index, KEYS[2] cle de l'entite
+if redis.call('EXISTS', KEYS[2]) == 0 then
+    return redis.call('DEL', KEYS[1])
+end
+return 0
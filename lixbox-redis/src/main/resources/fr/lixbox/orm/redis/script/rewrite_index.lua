@@ -0,0 +1,23 @@
+-- Reecrit le hash d'index d'une entite sans toucher a son corps ni aux expirations.
+-- KEYS[1] cle de l'entite, KEYS[2] cle du hash d'index
+-- ARGV[1] empreinte SHA1 du corps lu: une entite modifiee entre temps n'est pas reecrite
+-- ARGV[2..n] champs et valeurs du hash d'index, un champ vide est retire
+local body = redis.call('GET', KEYS[1])
+if not body or redis.sha1hex(body) ~= ARGV[1] or redis.call('EXISTS', KEYS[2]) == 0 then
+    return 0
+end
+local removed = {'payload'}
+local fields = {}
+for ix = 2, #ARGV, 2 do
+    if ARGV[ix + 1] == '' then
+        removed[#removed + 1] = ARGV[ix]
+    else
+        fields[#fields + 1] = ARGV[ix]
+        fields[#fields + 1] = ARGV[ix + 1]
+    end
+end
+redis.call('HDEL', KEYS[2], unpack(removed))
+if #fields > 0 then
+    redis.call('HSET', KEYS[2], unpack(fields))
+end
+return 1
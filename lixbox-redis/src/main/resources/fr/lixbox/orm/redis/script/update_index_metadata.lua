@@ -0,0 +1,13 @@
+-- Memorise le schema d'un index si l'empreinte stockee est encore celle
+-- lue avant sa migration: un seul client bascule ensuite l'alias.
+-- KEYS[1] hash des metadonnees de l'index
+-- ARGV[1] empreinte attendue, vide si aucune
+-- ARGV[2] nouvelle empreinte, ARGV[3] description du schema,
+-- ARGV[4] index servant le nom logique, ARGV[5] version du format des valeurs
+-- Renvoie 1 si les metadonnees sont mises a jour, 0 sinon.
+local current = redis.call('HGET', KEYS[1], 'fingerprint') or ''
+if current ~= ARGV[1] then
+    return 0
+end
+redis.call('HSET', KEYS[1], 'fingerprint', ARGV[2], 'schema', ARGV[3], 'index', ARGV[4], 'format', ARGV[5])
+return 1
@@ -25,9 +25,7 @@ package fr.lixbox.jee.redis.model;
 
 import java.util.ArrayList;
 import java.util.Calendar;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 import javax.xml.bind.annotation.XmlTransient;
 
@@ -38,9 +36,9 @@ import com.fasterxml.jackson.annotation.JsonIgnore;
 
 import fr.lixbox.io.json.JsonUtil;
 import fr.lixbox.orm.entity.model.Dao;
+import fr.lixbox.orm.redis.model.NumericIndex;
 import fr.lixbox.orm.redis.model.RedisSearchDao;
-import fr.lixbox.orm.redis.query.RedisSearchValueSanitizer;
-import redis.clients.jedis.search.Schema;
+import fr.lixbox.orm.redis.model.TextIndex;
 
 /**
  * Cette classe est l'entite qui stocke un jour non ouvré.
@@ -53,11 +51,16 @@ public class JNO implements RedisSearchDao, Dao
     protected static final Log log = LogFactory.getLog(JNO.class);
     private static final long serialVersionUID = -20120911092230L;
     
+    @TextIndex(weight=2, sortable=true)
     private String libelle;
+    @NumericIndex
     private Calendar dateEvent;
     private boolean estActif = true;
+    @TextIndex(sortable=true)
     private List<String> liste1;
+    @TextIndex(sortable=true)
     private String oid;
+    @TextIndex(sortable=true)
     private TypeJour typeJour;
     
     
@@ -143,36 +146,6 @@ public class JNO implements RedisSearchDao, Dao
     
     
     
-    @Override
-    public Schema getIndexSchema()
-    {
-        return new Schema()
-                .addSortableTextField("oid", 1)
-                .addSortableTextField("libelle", 2)
-                .addSortableTextField("typeJour",1)
-                .addSortableTextField("liste1",1)
-                .addNumericField("dateEvent");
-    }
-    
-    
-    
-    @Override
-    public Map<String, Object> getIndexFieldValues()
-    {
-        Map<String, Object> indexFields = new HashMap<>();
-        indexFields.put("libelle", RedisSearchValueSanitizer.sanitizeValue(libelle));
-        if (dateEvent!=null)
-        {
-            indexFields.put("dateEvent",dateEvent.getTimeInMillis());
-        }
-        indexFields.put("liste1", RedisSearchValueSanitizer.sanitizeValue(getListe1()));
-        indexFields.put("typeJour", RedisSearchValueSanitizer.sanitizeValue(typeJour));
-        return indexFields;
-    }
-
-    
-    
-
     @JsonIgnore
     @XmlTransient
     public String getKey()
@@ -0,0 +1,55 @@
+/*******************************************************************************
+ *    
+ *                           FRAMEWORK Lixbox
+ *                          ==================
+ *      
+ * This file is part of lixbox-orm.
+ *
+ *    lixbox-orm is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    lixbox-orm is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *    along with lixbox-orm.  If not, see <https://www.gnu.org/licenses/>
+ *   
+ *   @AUTHOR Lixbox-team
+ *
+ ******************************************************************************/
+package fr.lixbox.jee.redis.model;
+
+import java.util.Calendar;
+
+import fr.lixbox.orm.entity.model.OptimisticDao;
+
+/**
+ * Cette classe est l'entite qui stocke un jour non ouvré versionné.
+ * 
+ * @author ludovic.terral
+ */
+public class JNOVersionne extends JNO implements OptimisticDao
+{
+    // ----------- Attribut -----------   
+    private static final long serialVersionUID = 202210170016L;
+    
+    private Calendar version;
+    
+    
+    
+    // ----------- Methode -----------
+    @Override
+    public Calendar getVersion()
+    {
+        return this.version;
+    }
+    @Override
+    public void setVersion(Calendar version)
+    {
+        this.version = version;
+    }
+}